@@ -0,0 +1,549 @@
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.scene.Scene;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.*;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * JavaFX window for {@link AdvancedWebCrawler.CrawlEngine}. The engine is in {@code crawl.java}, which
+ * does not depend on JavaFX; the window is compiled together with it:
+ *
+ * <pre>
+ * javac --module-path $JAVAFX_HOME/lib --add-modules javafx.controls -d out crawl.java AdvancedWebCrawlerGUI.java
+ * java --module-path $JAVAFX_HOME/lib --add-modules javafx.controls -cp out AdvancedWebCrawlerGUI
+ * </pre>
+ */
+public class AdvancedWebCrawlerGUI extends Application {
+
+    private final int LOG_LINES = 1000;
+    private final int LOG_BUFFER_CAPACITY = 16 * 1024;
+    private final long LOG_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private final int CHART_HISTORY = 4096;
+    private final int CHART_POINTS = 300;
+    private final LogRing logBuffer = new LogRing(LOG_BUFFER_CAPACITY);
+    private AdvancedWebCrawler.CrawlEngine engine;
+    private AnimationTimer logDrainer;
+
+    private TextField urlField;
+    private TextField domainFilterField;
+    private Spinner<Integer> depthSpinner;
+    private ComboBox<AdvancedWebCrawler.ExecutionMode> modeComboBox;
+    private Spinner<Integer> concurrencySpinner;
+    private Spinner<Integer> hostDelaySpinner;
+    private Spinner<Integer> hostConcurrencySpinner;
+    private CheckBox resumeCheckBox;
+    private CheckBox warcCheckBox;
+    private TextField replayDirField;
+    private Button startButton;
+    private Button pauseButton;
+    private ListView<String> logView;
+    private ProgressBar progressBar;
+    private Label connectionStatsLabel;
+    private Label frontierStatsLabel;
+    private Label metricsLabel;
+    private Label latencyLabel;
+    private LineChart<Number, Number> crawlChart;
+    private XYChart.Series<Number, Number> dataSeries;
+    private LineChart<Number, Number> rateChart;
+    private XYChart.Series<Number, Number> pageRateSeries;
+    private XYChart.Series<Number, Number> byteRateSeries;
+
+    public static void main(String[] args) {
+        AdvancedWebCrawler.configureKeepAlive();
+        launch(args);
+    }
+
+    @Override
+    public void start(Stage primaryStage) {
+        primaryStage.setTitle("Advanced Web Crawler");
+
+        BorderPane root = new BorderPane();
+        root.setTop(createControlPanel());
+        root.setCenter(createVisualizationPanel());
+        root.setBottom(createLogPanel());
+
+        Scene scene = new Scene(root, 800, 600);
+        primaryStage.setScene(scene);
+        primaryStage.show();
+
+        logDrainer = new AnimationTimer() {
+            private long lastDrain;
+
+            @Override
+            public void handle(long now) {
+                if (now - lastDrain >= LOG_FRAME_NANOS) {
+                    lastDrain = now;
+                    drainLog();
+                }
+            }
+        };
+        logDrainer.start();
+
+        engine = new AdvancedWebCrawler.CrawlEngine(new AdvancedWebCrawler.CrawlEngine.Listener() {
+            @Override
+            public void onPage(AdvancedWebCrawler.PageInfo page, int depth) {
+                updateLog("Crawled: " + page.url + " (Depth: " + depth + ")");
+            }
+
+            @Override
+            public void onMessage(String message) {
+                updateLog(message);
+            }
+        });
+    }
+
+    private VBox createControlPanel() {
+        VBox controlPanel = new VBox(10);
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+
+        urlField = new TextField();
+        urlField.setPromptText("Enter starting URL");
+        grid.add(new Label("Start URL:"), 0, 0);
+        grid.add(urlField, 1, 0);
+
+        domainFilterField = new TextField();
+        domainFilterField.setPromptText("Enter domain filter");
+        grid.add(new Label("Domain Filter:"), 0, 1);
+        grid.add(domainFilterField, 1, 1);
+
+        depthSpinner = new Spinner<>(1, 10, 3);
+        grid.add(new Label("Max Depth:"), 0, 2);
+        grid.add(depthSpinner, 1, 2);
+
+        modeComboBox = new ComboBox<>();
+        modeComboBox.getItems().addAll(AdvancedWebCrawler.ExecutionMode.values());
+        modeComboBox.setValue(AdvancedWebCrawler.ExecutionMode.ASYNC);
+        grid.add(new Label("Execution Mode:"), 0, 3);
+        grid.add(modeComboBox, 1, 3);
+
+        concurrencySpinner = new Spinner<>(1, 100000, AdvancedWebCrawler.CrawlEngine.DEFAULT_CONCURRENCY);
+        concurrencySpinner.setEditable(true);
+        grid.add(new Label("Max Concurrency:"), 0, 4);
+        grid.add(concurrencySpinner, 1, 4);
+
+        hostDelaySpinner = new Spinner<>(0, 60000, AdvancedWebCrawler.CrawlEngine.DEFAULT_HOST_DELAY_MILLIS);
+        hostDelaySpinner.setEditable(true);
+        grid.add(new Label("Per-Host Delay (ms):"), 0, 5);
+        grid.add(hostDelaySpinner, 1, 5);
+
+        hostConcurrencySpinner = new Spinner<>(1, 1000, AdvancedWebCrawler.CrawlEngine.DEFAULT_HOST_CONCURRENCY);
+        hostConcurrencySpinner.setEditable(true);
+        grid.add(new Label("Per-Host Concurrency:"), 0, 6);
+        grid.add(hostConcurrencySpinner, 1, 6);
+
+        resumeCheckBox = new CheckBox("Resume the last crawl: continue its queue, skip URLs it visited");
+        grid.add(resumeCheckBox, 1, 7);
+
+        warcCheckBox = new CheckBox("Archive pages to WARC files");
+        grid.add(warcCheckBox, 1, 8);
+
+        replayDirField = new TextField();
+        replayDirField.setPromptText("Directory of recorded WARC files (optional)");
+        grid.add(new Label("Replay From:"), 0, 9);
+        grid.add(replayDirField, 1, 9);
+
+        startButton = new Button("Start Crawling");
+        startButton.setOnAction(e -> toggleCrawling());
+        pauseButton = new Button("Pause");
+        pauseButton.setOnAction(e -> togglePause());
+        pauseButton.setDisable(true);
+        grid.add(new HBox(10, startButton, pauseButton), 1, 10);
+
+        progressBar = new ProgressBar(0);
+        progressBar.setMaxWidth(Double.MAX_VALUE);
+        grid.add(progressBar, 0, 11, 2, 1);
+
+        connectionStatsLabel = new Label("Connection leases: -");
+        grid.add(connectionStatsLabel, 0, 12, 2, 1);
+
+        frontierStatsLabel = new Label("Frontier: -");
+        grid.add(frontierStatsLabel, 0, 13, 2, 1);
+
+        metricsLabel = new Label("Pages: -");
+        grid.add(metricsLabel, 0, 14, 2, 1);
+
+        latencyLabel = new Label("Latency: -");
+        grid.add(latencyLabel, 0, 15, 2, 1);
+
+        controlPanel.getChildren().addAll(grid);
+        return controlPanel;
+    }
+
+    private VBox createVisualizationPanel() {
+        VBox visualizationPanel = new VBox(10);
+
+        NumberAxis xAxis = new NumberAxis();
+        NumberAxis yAxis = new NumberAxis();
+        crawlChart = new LineChart<>(xAxis, yAxis);
+        crawlChart.setTitle("Crawl Progress");
+        crawlChart.setAnimated(false);
+        crawlChart.setCreateSymbols(false);
+        xAxis.setLabel("Time (seconds)");
+        yAxis.setLabel("Pages Crawled");
+
+        dataSeries = new XYChart.Series<>();
+        dataSeries.setName("Pages Crawled");
+        crawlChart.getData().add(dataSeries);
+
+        NumberAxis rateTimeAxis = new NumberAxis();
+        NumberAxis rateAxis = new NumberAxis();
+        rateChart = new LineChart<>(rateTimeAxis, rateAxis);
+        rateChart.setTitle("Crawl Rate");
+        rateChart.setAnimated(false);
+        rateChart.setCreateSymbols(false);
+        rateTimeAxis.setLabel("Time (seconds)");
+        rateAxis.setLabel("Per Second");
+
+        pageRateSeries = new XYChart.Series<>();
+        pageRateSeries.setName("Pages/sec");
+        byteRateSeries = new XYChart.Series<>();
+        byteRateSeries.setName("KB/sec");
+        rateChart.getData().add(pageRateSeries);
+        rateChart.getData().add(byteRateSeries);
+
+        visualizationPanel.getChildren().addAll(crawlChart, rateChart);
+        return visualizationPanel;
+    }
+
+    private VBox createLogPanel() {
+        VBox logPanel = new VBox(10);
+        logView = new ListView<>();
+        logPanel.getChildren().add(logView);
+        return logPanel;
+    }
+
+    private void toggleCrawling() {
+        if (!engine.isRunning()) {
+            startCrawling();
+        } else {
+            stopCrawling();
+        }
+    }
+
+    private void togglePause() {
+        if (engine.isPaused()) {
+            engine.resume();
+            pauseButton.setText("Pause");
+        } else {
+            engine.pause();
+            pauseButton.setText("Resume");
+        }
+    }
+
+    private void startCrawling() {
+        AdvancedWebCrawler.CrawlEngine.Settings settings =
+                new AdvancedWebCrawler.CrawlEngine.Settings(urlField.getText(), domainFilterField.getText());
+        settings.maxDepth = depthSpinner.getValue();
+        settings.mode = modeComboBox.getValue();
+        settings.concurrency = concurrencySpinner.getValue();
+        settings.hostDelay = Duration.ofMillis(hostDelaySpinner.getValue());
+        settings.hostConcurrency = hostConcurrencySpinner.getValue();
+        settings.resume = resumeCheckBox.isSelected();
+        settings.warc = warcCheckBox.isSelected();
+        if (!replayDirField.getText().isBlank()) {
+            settings.replayDir = Paths.get(replayDirField.getText().trim());
+        }
+
+        try {
+            engine.start(settings).whenComplete((result, error) ->
+                    Platform.runLater(() -> {
+                        startButton.setText("Start Crawling");
+                        pauseButton.setText("Pause");
+                        pauseButton.setDisable(true);
+                    }));
+        } catch (IllegalArgumentException e) {
+            showAlert("Error", e.getMessage());
+            return;
+        } catch (IOException e) {
+            updateLog(e.getMessage());
+            return;
+        }
+
+        startButton.setText("Stop Crawling");
+        pauseButton.setDisable(false);
+        clearPreviousResults();
+
+        new Thread(this::updateChart).start();
+    }
+
+    private void stopCrawling() {
+        engine.stop();
+    }
+
+    private void clearPreviousResults() {
+        logView.getItems().clear();
+        dataSeries.getData().clear();
+        pageRateSeries.getData().clear();
+        byteRateSeries.getData().clear();
+        progressBar.setProgress(0);
+    }
+
+    /**
+     * Samples the crawl once a second into fixed-size {@link TimeSeries} buffers and redraws the
+     * charts from an LTTB-downsampled copy of each, so a long crawl costs no more to render than
+     * a short one.
+     */
+    private void updateChart() {
+        TimeSeries pages = new TimeSeries(CHART_HISTORY);
+        TimeSeries pageRate = new TimeSeries(CHART_HISTORY);
+        TimeSeries byteRate = new TimeSeries(CHART_HISTORY);
+        AdvancedWebCrawler.CrawlEngine.Stats previous = engine.stats();
+        while (engine.isRunning()) {
+            try {
+                Thread.sleep(1000);
+                AdvancedWebCrawler.CrawlEngine.Stats stats = engine.stats();
+                double seconds = stats.elapsed.toMillis() / 1000.0;
+                double interval = Math.max(1e-3, (stats.elapsed.toMillis() - previous.elapsed.toMillis()) / 1000.0);
+                pages.add(seconds, stats.pagesCrawled);
+                pageRate.add(seconds, (stats.pagesCrawled - previous.pagesCrawled) / interval);
+                byteRate.add(seconds, (stats.bytesDownloaded - previous.bytesDownloaded) / 1024.0 / interval);
+                previous = stats;
+
+                List<XYChart.Data<Number, Number>> pagePoints = pages.downsample(CHART_POINTS);
+                List<XYChart.Data<Number, Number>> pageRatePoints = pageRate.downsample(CHART_POINTS);
+                List<XYChart.Data<Number, Number>> byteRatePoints = byteRate.downsample(CHART_POINTS);
+                Platform.runLater(() -> {
+                    dataSeries.getData().setAll(pagePoints);
+                    pageRateSeries.getData().setAll(pageRatePoints);
+                    byteRateSeries.getData().setAll(byteRatePoints);
+                    progressBar.setProgress((double) stats.pagesCrawled / 1000);
+                    connectionStatsLabel.setText("Connection leases: " + stats.leases);
+                    frontierStatsLabel.setText("Frontier: " + stats.frontier);
+                    metricsLabel.setText(String.format("Pages: %d, %d KB downloaded, %d errors, %d in flight%s",
+                            stats.pagesCrawled, stats.bytesDownloaded / 1024, stats.errors, stats.inFlight,
+                            stats.paused ? " (paused)" : ""));
+                    latencyLabel.setText("Latency: " + stats.latency + ", slowest TTFB p99: " + stats.slowestHost);
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /** Queues a log line for the next UI frame; safe to call from any thread and never blocks. */
+    private void updateLog(String message) {
+        logBuffer.offer(message);
+    }
+
+    /**
+     * Moves everything logged since the last frame into the log view in one batch, keeping only
+     * the newest {@code LOG_LINES} lines. Runs on the FX thread.
+     */
+    private void drainLog() {
+        List<String> batch = new ArrayList<>();
+        logBuffer.drainTo(batch);
+        long dropped = logBuffer.takeDropped();
+        if (dropped > 0) {
+            batch.add("... " + dropped + " log messages dropped");
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        ObservableList<String> lines = logView.getItems();
+        if (batch.size() >= LOG_LINES) {
+            lines.setAll(batch.subList(batch.size() - LOG_LINES, batch.size()));
+        } else {
+            int excess = lines.size() + batch.size() - LOG_LINES;
+            if (excess > 0) {
+                lines.remove(0, excess);
+            }
+            lines.addAll(batch);
+        }
+        logView.scrollTo(lines.size() - 1);
+    }
+
+    private void showAlert(String title, String content) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle(title);
+        alert.setHeaderText(null);
+        alert.setContentText(content);
+        alert.showAndWait();
+    }
+
+    @Override
+    public void stop() {
+        logDrainer.stop();
+        engine.close();
+    }
+
+    /**
+     * Fixed-size buffer of (x, y) samples for charting. When it fills up, it halves itself with
+     * {@link #lttb} rather than dropping old samples, so it always covers the whole crawl at a
+     * resolution that coarsens with its length; memory and drawing cost stay constant.
+     * Not thread-safe.
+     */
+    private static class TimeSeries {
+        private final double[] xs;
+        private final double[] ys;
+        private int size;
+
+        TimeSeries(int capacity) {
+            this.xs = new double[Math.max(4, capacity)];
+            this.ys = new double[xs.length];
+        }
+
+        void add(double x, double y) {
+            if (size == xs.length) {
+                int[] keep = lttb(xs, ys, size, size / 2);
+                for (int i = 0; i < keep.length; i++) { // keep[i] >= i, so copying forward is safe
+                    xs[i] = xs[keep[i]];
+                    ys[i] = ys[keep[i]];
+                }
+                size = keep.length;
+            }
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        /** Returns at most {@code points} chart points that preserve the shape of the series. */
+        List<XYChart.Data<Number, Number>> downsample(int points) {
+            int[] keep = lttb(xs, ys, size, points);
+            List<XYChart.Data<Number, Number>> data = new ArrayList<>(keep.length);
+            for (int index : keep) {
+                data.add(new XYChart.Data<>(xs[index], ys[index]));
+            }
+            return data;
+        }
+
+        /**
+         * Largest-Triangle-Three-Buckets (Steinarsson, 2013): keeps the first and last sample and,
+         * from each of {@code threshold - 2} equal buckets in between, the sample forming the
+         * largest triangle with the previously kept sample and the average of the next bucket.
+         * Returns the kept indices in ascending order.
+         */
+        static int[] lttb(double[] xs, double[] ys, int size, int threshold) {
+            if (threshold >= size || threshold < 3) {
+                int[] all = new int[size];
+                Arrays.setAll(all, i -> i);
+                return all;
+            }
+            int[] kept = new int[threshold];
+            double bucketSize = (double) (size - 2) / (threshold - 2);
+            int previous = 0;
+            for (int bucket = 0; bucket < threshold - 2; bucket++) {
+                int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+                int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, size);
+                double averageX = 0;
+                double averageY = 0;
+                for (int i = nextStart; i < nextEnd; i++) {
+                    averageX += xs[i];
+                    averageY += ys[i];
+                }
+                averageX /= nextEnd - nextStart;
+                averageY /= nextEnd - nextStart;
+
+                int start = (int) (bucket * bucketSize) + 1;
+                int end = nextStart;
+                double maxArea = -1;
+                int chosen = start;
+                for (int i = start; i < end; i++) {
+                    double area = Math.abs((xs[previous] - averageX) * (ys[i] - ys[previous])
+                            - (xs[previous] - xs[i]) * (averageY - ys[previous]));
+                    if (area > maxArea) {
+                        maxArea = area;
+                        chosen = i;
+                    }
+                }
+                kept[bucket + 1] = chosen;
+                previous = chosen;
+            }
+            kept[threshold - 1] = size - 1;
+            return kept;
+        }
+    }
+
+    /**
+     * Bounded lock-free multi-producer, single-consumer queue of log lines, after Vyukov's bounded
+     * MPMC queue: every slot carries a sequence number telling producers when it is free and the
+     * consumer when it is filled, so neither side takes a lock. A producer finding the ring full
+     * drops its line and counts it instead of waiting, so a slow UI can never stall a crawler
+     * thread.
+     */
+    private static class LogRing {
+        private final AtomicReferenceArray<String> lines;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private final LongAdder dropped = new LongAdder();
+        private long head; // consumer only
+
+        /** {@code capacity} is rounded up to a power of two. */
+        LogRing(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.lines = new AtomicReferenceArray<>(size);
+            this.sequences = new AtomicLongArray(size);
+            this.mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        /** Adds {@code line}, returning {@code false} (and counting a drop) if the ring is full. */
+        boolean offer(String line) {
+            long position = tail.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        lines.lazySet(index, line);
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (difference < 0) {
+                    dropped.increment();
+                    return false;
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        /** Moves every line published so far into {@code out}; must only be called by one thread. */
+        int drainTo(List<String> out) {
+            int drained = 0;
+            while (true) {
+                int index = (int) (head & mask);
+                if (sequences.get(index) != head + 1) {
+                    return drained;
+                }
+                out.add(lines.get(index));
+                lines.lazySet(index, null);
+                sequences.set(index, head + mask + 1);
+                head++;
+                drained++;
+            }
+        }
+
+        /** Returns the number of lines dropped since the last call. */
+        long takeDropped() {
+            return dropped.sumThenReset();
+        }
+    }
+}
@@ -1,271 +1,5353 @@
-import javafx.application.Application;
-import javafx.application.Platform;
-import javafx.scene.Scene;
-import javafx.scene.chart.LineChart;
-import javafx.scene.chart.NumberAxis;
-import javafx.scene.chart.XYChart;
-import javafx.scene.control.*;
-import javafx.scene.layout.BorderPane;
-import javafx.scene.layout.GridPane;
-import javafx.scene.layout.VBox;
-import javafx.stage.Stage;
+import com.sun.net.httpserver.HttpServer;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
 
 import java.io.*;
-import java.net.HttpURLConnection;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * The crawler and its command line: {@code --headless} crawls and the benchmark flags run on
+ * {@link CrawlEngine} directly. This file needs nothing beyond the JDK, so on a machine without
+ * a display or JavaFX it runs as is, e.g. {@code java crawl.java --headless <startUrl> <domain>}.
+ * The JavaFX window is {@code AdvancedWebCrawlerGUI}, in its own file together with how to
+ * build it.
+ */
+final class AdvancedWebCrawler {
+
+    public static void main(String[] args) throws Exception {
+        configureKeepAlive();
+        if (args.length > 0 && args[0].equals("--bench")) {
+            ExecutionModeBenchmark.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bench-visited")) {
+            VisitedSetBenchmark.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bench-replay")) {
+            ReplayBenchmark.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bench-micro")) {
+            MicroBenchmarks.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bench-site")) {
+            SiteBenchmark.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve-site")) {
+            SyntheticSite.serve(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--headless")) {
+            HeadlessCrawl.run(args);
+            return;
+        }
+        System.err.println("usage: --headless <startUrl> <domainFilter> [maxDepth] [mode] [seconds]");
+        System.err.println("       --serve-site | --bench | --bench-site | --bench-visited | --bench-replay"
+                + " | --bench-micro [options]");
+        System.err.println("The JavaFX window is AdvancedWebCrawlerGUI; see AdvancedWebCrawlerGUI.java to build it.");
+    }
+
+    /**
+     * The crawler itself, independent of any UI: owns the executors, fetcher, frontier and
+     * stores, runs {@link CrawlerWorker}s for one crawl at a time and reports crawled pages and
+     * messages to a {@link Listener}. The JavaFX window and {@link HeadlessCrawl} are both just
+     * clients of it. A crawl ends by itself once the frontier is empty and no task is in flight,
+     * or when stopped; either way {@link #start}'s future completes after the stores are flushed.
+     * A running crawl can be paused and resumed without losing its frontier or visited set, and
+     * a {@link CrawlJournal} lets a crawl that was stopped or killed be resumed later.
+     * An engine can run any number of crawls one after another; {@link #close} releases it for
+     * good.
+     */
+    static class CrawlEngine implements Closeable {
+        static final int DEFAULT_CONCURRENCY = 1000;
+        static final int DEFAULT_HOST_DELAY_MILLIS = 100;
+        static final int DEFAULT_HOST_CONCURRENCY = 4;
+
+        static final String PAGES_FETCHED = "crawler_pages_fetched_total";
+        static final String BYTES_DOWNLOADED = "crawler_bytes_downloaded_total";
+        static final String ERRORS = "crawler_errors_total";
+        static final String IN_FLIGHT = "crawler_requests_in_flight";
+        static final String QUEUE_DEPTH = "crawler_frontier_queued";
+        static final String PAUSED = "crawler_paused";
+        static final String JOURNAL_BYTES = "crawler_journal_bytes_total";
+        static final String JOURNAL_SYNCS = "crawler_journal_syncs_total";
+
+        private final int MAX_THREADS = 10;
+        private final int POOL_MAX_PER_HOST = Integer.getInteger("crawler.pool.maxPerHost", 32);
+        private final int POOL_MAX_IDLE = Integer.getInteger("crawler.pool.maxIdle", 16);
+        static final int POOL_IDLE_TIMEOUT_SECONDS = Integer.getInteger("crawler.pool.idleTimeoutSeconds", 30);
+        private final int FRONTIER_HOT_CAPACITY = Integer.getInteger("crawler.frontier.hotCapacity", 100_000);
+        private final int FRONTIER_SEGMENT_BYTES = Integer.getInteger("crawler.frontier.segmentBytes", 64 * 1024 * 1024);
+        private final long PAGE_SEGMENT_BYTES = Long.getLong("crawler.pages.segmentBytes", 256L * 1024 * 1024);
+        private final long WARC_MAX_FILE_BYTES = Long.getLong("crawler.warc.maxFileBytes", 1024L * 1024 * 1024);
+        private final Path DATA_DIR = Paths.get(System.getProperty("crawler.dataDir", "crawl-data"));
+        private final int LATENCY_MAX_HOSTS = Integer.getInteger("crawler.metrics.maxHosts", 256);
+        private final int METRICS_PORT = Integer.getInteger("crawler.metrics.port", -1);
+        private final int MAX_URL_LENGTH = Integer.getInteger("crawler.maxUrlLength", 8192);
+        private final boolean JOURNAL_ENABLED = Boolean.parseBoolean(System.getProperty("crawler.journal", "true"));
+        private final long JOURNAL_SYNC_MILLIS = Long.getLong("crawler.journal.syncMillis", 20);
+        private final long JOURNAL_COMPACT_BYTES = Long.getLong("crawler.journal.compactBytes", 64L * 1024 * 1024);
+
+        /** Receives crawled pages and progress messages, on crawler threads. */
+        interface Listener {
+            void onPage(PageInfo page, int depth);
+
+            void onMessage(String message);
+        }
+
+        /** What to crawl and how; fields that are not set keep their defaults. */
+        static class Settings {
+            final String startUrl;
+            final String domainFilter;
+            int maxDepth = 3;
+            ExecutionMode mode = ExecutionMode.ASYNC;
+            int concurrency = DEFAULT_CONCURRENCY;
+            Duration hostDelay = Duration.ofMillis(DEFAULT_HOST_DELAY_MILLIS);
+            int hostConcurrency = DEFAULT_HOST_CONCURRENCY;
+            /**
+             * Continue the last crawl from its {@link CrawlJournal}, skip URLs visited by earlier
+             * crawls and keep the pages they stored.
+             */
+            boolean resume;
+            boolean warc;
+            /** Directory of recorded WARC files to crawl instead of the network, or {@code null}. */
+            Path replayDir;
+
+            Settings(String startUrl, String domainFilter) {
+                this.startUrl = startUrl;
+                this.domainFilter = domainFilter;
+            }
+        }
+
+        /** Snapshot of a crawl's progress, read from the engine's {@link MetricsRegistry}. */
+        static class Stats {
+            final long pagesCrawled;
+            final long bytesDownloaded;
+            final long errors;
+            final long inFlight;
+            final long queued;
+            final boolean paused;
+            final Duration elapsed;
+            /** Estimated connection reuse from the pool's leases; see {@link HostConnectionPool}. */
+            final String leases;
+            final String frontier;
+            final String latency;
+            final String slowestHost;
+
+            Stats(MetricsRegistry metrics, Duration elapsed, String leases, String frontier, FetchTimings timings) {
+                this.pagesCrawled = metrics.get(PAGES_FETCHED);
+                this.bytesDownloaded = metrics.get(BYTES_DOWNLOADED);
+                this.errors = metrics.sum(ERRORS);
+                this.inFlight = metrics.get(IN_FLIGHT);
+                this.queued = metrics.get(QUEUE_DEPTH);
+                this.paused = metrics.get(PAUSED) != 0;
+                this.elapsed = elapsed;
+                this.leases = leases;
+                this.frontier = frontier;
+                this.latency = timings.summary();
+                this.slowestHost = timings.slowestHost(FetchTimings.Phase.TTFB);
+            }
+        }
+
+        /** Outcome of one crawl. */
+        static class Result {
+            /** {@code true} if the crawl ran out of pages, {@code false} if it was stopped. */
+            final boolean finished;
+            final long pagesCrawled;
+            final long bytesDownloaded;
+            final long errors;
+            final Duration wallTime;
+            /** Estimated connection reuse from the pool's leases; see {@link HostConnectionPool}. */
+            final String leases;
+            final String latency;
+            final String slowestHost;
+
+            Result(boolean finished, MetricsRegistry metrics, Duration wallTime, String leases,
+                    FetchTimings timings) {
+                this.finished = finished;
+                this.pagesCrawled = metrics.get(PAGES_FETCHED);
+                this.bytesDownloaded = metrics.get(BYTES_DOWNLOADED);
+                this.errors = metrics.sum(ERRORS);
+                this.wallTime = wallTime;
+                this.leases = leases;
+                this.latency = timings.summary();
+                this.slowestHost = timings.slowestHost(FetchTimings.Phase.TTFB);
+            }
+
+            @Override
+            public String toString() {
+                double seconds = wallTime.toMillis() / 1000.0;
+                return String.format("%s: %d pages, %d KB, %d errors in %.1f s (%.1f pages/sec)",
+                        finished ? "Crawl finished" : "Crawl stopped", pagesCrawled, bytesDownloaded / 1024, errors,
+                        seconds, seconds == 0 ? 0.0 : pagesCrawled / seconds);
+            }
+        }
+
+        /**
+         * Bookkeeping for one crawl. Workers and fetch callbacks hold on to the run they belong
+         * to and take its frontier, in-flight permits and journal from it, so stragglers of a
+         * stopped crawl cannot upset the termination count, host slots or permits of the next.
+         */
+        private static class Run {
+            final long startNanos = System.nanoTime();
+            final HostFrontier frontier;
+            final Semaphore inFlightRequests;
+            /** Fetches in progress; stragglers of a stopped run do not show up in the next one's. */
+            final AtomicLong inFlight = new AtomicLong();
+            /** Where the run logs its frontier, or {@code null} if it is not journaled. */
+            final CrawlJournal journal;
+            /** Tasks queued or being processed; the crawl is over when this drops to zero. */
+            final AtomicLong outstanding = new AtomicLong();
+            final CompletableFuture<Result> completion = new CompletableFuture<>();
+            private volatile boolean ended;
+            private volatile long endNanos;
+
+            /** The engine's placeholder before its first crawl passes {@code null} for all three. */
+            Run(HostFrontier frontier, Semaphore inFlightRequests, CrawlJournal journal) {
+                this.frontier = frontier;
+                this.inFlightRequests = inFlightRequests;
+                this.journal = journal;
+            }
+
+            void end() {
+                endNanos = System.nanoTime();
+                ended = true;
+            }
+
+            Duration elapsed() {
+                return Duration.ofNanos((ended ? endNanos : System.nanoTime()) - startNanos);
+            }
+        }
+
+        private final Listener listener;
+        private ExecutorService executorService;
+        private ExecutorService completionExecutor;
+        private ExecutorService virtualThreadExecutor;
+        private HostConnectionPool connectionPool;
+        private AsyncFetcher fetcher;
+        private PageSource pageSource;
+        private ExecutionMode executionMode = ExecutionMode.ASYNC;
+        private PageStore pageStore;
+        private WarcWriter warcWriter;
+        private VisitedSet visitedUrls;
+        private HostFrontier frontier;
+
+        private volatile boolean isCrawling = false;
+        private volatile Run currentRun;
+        private final Object pauseLock = new Object();
+        private volatile boolean paused; // guarded by pauseLock, read without it on the fast path
+        private boolean closed;
+        private final MetricsRegistry metrics = new MetricsRegistry();
+        private final LongAdder pagesFetched = metrics.counter(PAGES_FETCHED);
+        private final LongAdder bytesDownloaded = metrics.counter(BYTES_DOWNLOADED);
+        private final LongAdder journalBytes = metrics.counter(JOURNAL_BYTES);
+        private final LongAdder journalSyncs = metrics.counter(JOURNAL_SYNCS);
+        private final FetchTimings fetchTimings = new FetchTimings(LATENCY_MAX_HOSTS);
+        private MetricsServer metricsServer;
+
+        CrawlEngine(Listener listener) {
+            this.listener = listener;
+            currentRun = new Run(null, null, null);
+            currentRun.end();
+            registerMetrics();
+            initializeCrawler();
+            if (METRICS_PORT >= 0) {
+                try {
+                    metricsServer = new MetricsServer(metrics, new InetSocketAddress(METRICS_PORT));
+                    log("Serving metrics at http://localhost:" + metricsServer.port() + "/metrics");
+                } catch (IOException e) {
+                    log("Cannot serve metrics on port " + METRICS_PORT + ": " + e.getMessage());
+                }
+            }
+        }
+
+        boolean isRunning() {
+            return isCrawling;
+        }
+
+        boolean isPaused() {
+            return paused;
+        }
+
+        /**
+         * Starts a crawl from {@code settings.startUrl} and returns once the workers are running.
+         * The returned future completes when the crawl has finished or been stopped and its
+         * outputs are flushed.
+         *
+         * @throws IllegalArgumentException if the settings do not describe a crawl
+         * @throws IOException if the replay directory cannot be read
+         */
+        synchronized CompletableFuture<Result> start(Settings settings) throws IOException {
+            if (closed || isCrawling) {
+                throw new IllegalStateException(closed ? "Crawler is closed" : "A crawl is already running");
+            }
+            if (settings.startUrl.isEmpty() || settings.domainFilter.isEmpty()) {
+                throw new IllegalArgumentException("Please enter a starting URL and domain filter.");
+            }
+            if (!settings.startUrl.contains(settings.domainFilter)) {
+                throw new IllegalArgumentException("The starting URL does not match the domain filter.");
+            }
+            if (settings.startUrl.length() > MAX_URL_LENGTH) {
+                throw new IllegalArgumentException(
+                        "The starting URL is longer than " + MAX_URL_LENGTH + " characters.");
+            }
+
+            pageSource = fetcher;
+            if (settings.replayDir != null) {
+                try {
+                    WarcReplaySource replay = WarcReplaySource.open(settings.replayDir);
+                    log("Replaying " + replay.size() + " recorded responses from " + settings.replayDir);
+                    pageSource = replay;
+                } catch (IOException e) {
+                    throw new IOException("Cannot replay from " + settings.replayDir + ": " + e.getMessage(), e);
+                }
+            }
+
+            executionMode = settings.mode;
+            frontier.close();
+            frontier = new HostFrontier(settings.hostDelay, settings.hostConcurrency, openSpillQueue(),
+                    FRONTIER_HOT_CAPACITY);
+            clearPreviousResults(settings.resume);
+            CrawlJournal.Recovered recovered = settings.resume ? recoverJournal(settings) : null;
+            CrawlJournal journal = openJournal(recovered);
+
+            Run run = new Run(frontier, new Semaphore(settings.concurrency), journal);
+            currentRun = run;
+            setPaused(false);
+            isCrawling = true;
+
+            if (executionMode == ExecutionMode.VIRTUAL_THREADS && !virtualThreadsAvailable()) {
+                log("Virtual threads need Java 21 or newer; running one platform thread per task instead.");
+            }
+            if (settings.warc) {
+                warcWriter = openWarcWriter();
+            }
+
+            // A resumed crawl continues with its recovered queue, already in the frontier.
+            // Otherwise the seed is always fetched, even when an earlier crawl already visited it.
+            if (recovered != null) {
+                run.outstanding.set(recovered.queued);
+            } else {
+                visitedUrls.claim(settings.startUrl);
+                List<CrawlTask> initial = List.of(new CrawlTask(settings.startUrl, 0));
+                if (journal != null) {
+                    journal.added(initial);
+                }
+                run.outstanding.set(initial.size());
+                frontier.offerAll(initial);
+                EnqueueEvent.commitAll(initial);
+            }
+
+            for (int i = 0; i < MAX_THREADS; i++) {
+                executorService.submit(new CrawlerWorker(run, settings.maxDepth, settings.domainFilter));
+            }
+            return run.completion;
+        }
+
+        /**
+         * Stops handing out tasks. Fetches already in flight complete and queue the links they
+         * find; a task a worker has just taken waits for {@link #resume}. Everything else, the
+         * frontier, the visited set and the stores, stays open, so resuming carries on exactly
+         * where the crawl left off. {@link #stop} still ends a paused crawl.
+         */
+        void pause() {
+            synchronized (pauseLock) {
+                if (!isCrawling || paused) {
+                    return;
+                }
+                paused = true;
+            }
+            log("Crawl paused, " + currentRun.inFlight.get() + " fetches in flight will complete");
+        }
+
+        /** Lets a paused crawl continue. */
+        void resume() {
+            synchronized (pauseLock) {
+                if (!paused) {
+                    return;
+                }
+                setPaused(false);
+            }
+            log("Crawl resumed, " + frontier.size() + " tasks queued");
+        }
+
+        private void setPaused(boolean value) {
+            synchronized (pauseLock) {
+                paused = value;
+                pauseLock.notifyAll();
+            }
+        }
+
+        /**
+         * Blocks a worker while the crawl is paused; returns at once otherwise. Returns
+         * {@code false} if the crawl was stopped meanwhile, in which case the worker must not
+         * start anything.
+         */
+        private boolean awaitResumed() throws InterruptedException {
+            if (paused) {
+                synchronized (pauseLock) {
+                    while (paused && isCrawling) {
+                        pauseLock.wait();
+                    }
+                }
+            }
+            return isCrawling;
+        }
+
+        /** Stops the running crawl, saves its stores and gets ready for the next one. */
+        synchronized void stop() {
+            if (closed) {
+                return;
+            }
+            shutdown();
+            initializeCrawler();
+        }
+
+        Stats stats() {
+            return new Stats(metrics, currentRun.elapsed(), connectionPool.stats(), frontier.stats(), fetchTimings);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                shutdown();
+                if (metricsServer != null) {
+                    metricsServer.close();
+                }
+            }
+        }
+
+        /**
+         * Ends {@code run} once it has run out of work: nothing queued and nothing in flight.
+         * Called on a thread of its own, as shutting down interrupts the crawler threads.
+         */
+        private synchronized void finish(Run run) {
+            if (run != currentRun || !isCrawling || closed) {
+                return; // stopped in the meantime
+            }
+            shutdown(true);
+            initializeCrawler();
+        }
+
+        private void shutdown() {
+            shutdown(false);
+        }
+
+        /** Stops the crawler threads, flushes the stores and completes the current run, if any. */
+        private void shutdown(boolean finished) {
+            boolean wasCrawling = isCrawling;
+            isCrawling = false;
+            executorService.shutdownNow();
+            completionExecutor.shutdownNow();
+            virtualThreadExecutor.shutdownNow();
+            setPaused(false); // only after the workers have been told to stop
+            frontier.close();
+            closeStores();
+            close(currentRun.journal, "journal");
+            if (wasCrawling) {
+                Run run = currentRun;
+                run.end();
+                Result result = new Result(finished, metrics, run.elapsed(), connectionPool.stats(), fetchTimings);
+                log(result.toString());
+                run.completion.complete(result);
+            }
+        }
+
+        private void initializeCrawler() {
+            executorService = Executors.newFixedThreadPool(MAX_THREADS);
+            completionExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            virtualThreadExecutor = newVirtualThreadExecutor();
+            connectionPool = new HostConnectionPool(POOL_MAX_PER_HOST, POOL_MAX_IDLE,
+                    Duration.ofSeconds(POOL_IDLE_TIMEOUT_SECONDS));
+            fetcher = new AsyncFetcher(completionExecutor, connectionPool, fetchTimings);
+            pageSource = fetcher;
+            visitedUrls = openVisitedSet();
+            pageStore = openPageStore();
+            frontier = new HostFrontier(Duration.ofMillis(DEFAULT_HOST_DELAY_MILLIS), DEFAULT_HOST_CONCURRENCY,
+                    null, FRONTIER_HOT_CAPACITY);
+        }
+
+        private void clearPreviousResults(boolean resume) {
+            if (!resume) {
+                visitedUrls.clear();
+                clearPageStore();
+            }
+            frontier.clear();
+            metrics.resetCounters();
+            fetchTimings.reset();
+        }
+
+        private void registerMetrics() {
+            Runtime runtime = Runtime.getRuntime();
+            metrics.sample(QUEUE_DEPTH, () -> frontier.size());
+            metrics.sample(IN_FLIGHT, () -> currentRun.inFlight.get());
+            metrics.sample(PAUSED, () -> paused ? 1 : 0);
+            metrics.sample("jvm_memory_heap_used_bytes", () -> runtime.totalMemory() - runtime.freeMemory());
+            metrics.sample("jvm_memory_heap_committed_bytes", runtime::totalMemory);
+            metrics.sample("jvm_memory_heap_max_bytes", runtime::maxMemory);
+            metrics.collect(fetchTimings::export);
+            metrics.describe(PAGES_FETCHED, "counter", "Pages fetched with status 200.");
+            metrics.describe(BYTES_DOWNLOADED, "counter", "Response body bytes of fetched pages.");
+            metrics.describe(ERRORS, "counter",
+                    "Failures by crawl stage and exception type; non-200 responses are type http_4xx, http_5xx etc.");
+            metrics.describe(IN_FLIGHT, "gauge", "Fetches currently in progress.");
+            metrics.describe(QUEUE_DEPTH, "gauge", "Tasks waiting in the frontier, in memory and spilled to disk.");
+            metrics.describe(PAUSED, "gauge", "1 while the crawl is paused, 0 otherwise.");
+            metrics.describe(JOURNAL_BYTES, "counter", "Bytes appended to the crawl journal.");
+            metrics.describe(JOURNAL_SYNCS, "counter", "Group commits (fsyncs) of the crawl journal.");
+            metrics.describe("crawler_fetch_latency_microseconds", "summary",
+                    "Fetch latency by phase (dns, connect, ttfb, body), overall and per host. dns is the first"
+                            + " lookup of each host only; connect includes TLS and think time; connect vs ttfb"
+                            + " follows the pool's estimate of connection reuse.");
+            metrics.describe("jvm_memory_heap_used_bytes", "gauge", "Java heap in use.");
+            metrics.describe("jvm_memory_heap_committed_bytes", "gauge", "Java heap committed by the JVM.");
+            metrics.describe("jvm_memory_heap_max_bytes", "gauge", "Maximum Java heap size.");
+        }
+
+        private void log(String message) {
+            listener.onMessage(message);
+        }
+
+        private void recordError(String stage, Throwable error) {
+            metrics.counter(ERRORS + "{stage=\"" + stage + "\",type=\"" + error.getClass().getSimpleName() + "\"}")
+                    .increment();
+        }
+
+        private VisitedSet openVisitedSet() {
+            Path directory = DATA_DIR.resolve("visited");
+            try {
+                return new VisitedSet(directory);
+            } catch (IOException | UncheckedIOException e) {
+                log("Cannot open visited set in " + directory + ", keeping it in memory: " + e.getMessage());
+                return new VisitedSet();
+            }
+        }
+
+        /**
+         * Rebuilds the visited set from the journal of the last crawl and queues those of its
+         * queued and in-flight tasks that are within {@code settings} straight into the
+         * frontier. Returns {@code null}, with the frontier empty, if there is nothing to
+         * recover.
+         */
+        private CrawlJournal.Recovered recoverJournal(Settings settings) {
+            if (!JOURNAL_ENABLED) {
+                return null;
+            }
+            Path directory = DATA_DIR.resolve("journal");
+            long startNanos = System.nanoTime();
+            try {
+                CrawlJournal.Recovered recovered = CrawlJournal.recover(directory, visitedUrls, task -> {
+                    if (task.depth > settings.maxDepth || !task.url.contains(settings.domainFilter)) {
+                        return false;
+                    }
+                    frontier.offer(task);
+                    EnqueueEvent.commitAll(List.of(task));
+                    return true;
+                });
+                if (recovered == null || recovered.queued == 0) {
+                    return null;
+                }
+                log(String.format("Recovered %d queued tasks and %d visited URLs from the journal in %d ms",
+                        recovered.queued, recovered.visited, (System.nanoTime() - startNanos) / 1_000_000));
+                return recovered;
+            } catch (IOException | UncheckedIOException e) {
+                log("Cannot recover from the journal in " + directory + ", starting from the seed: " + e.getMessage());
+                frontier.clear();
+                return null;
+            }
+        }
+
+        /** Carries on with the journal {@code recovered} came from, or starts a new one if it is null. */
+        private CrawlJournal openJournal(CrawlJournal.Recovered recovered) {
+            Path directory = DATA_DIR.resolve("journal");
+            Consumer<IOException> onFailure = e -> {
+                recordError("journal", e);
+                log("Journal write failed, the crawl goes on without crash recovery: " + e.getMessage());
+            };
+            try {
+                if (!JOURNAL_ENABLED) {
+                    CrawlJournal.delete(directory); // a stale journal must not be resumed later
+                    return null;
+                }
+                if (recovered != null) {
+                    return CrawlJournal.reopen(directory, recovered, JOURNAL_SYNC_MILLIS, JOURNAL_COMPACT_BYTES,
+                            onFailure, journalBytes, journalSyncs);
+                }
+                return CrawlJournal.open(directory, visitedUrls, JOURNAL_SYNC_MILLIS, JOURNAL_COMPACT_BYTES,
+                        onFailure, journalBytes, journalSyncs);
+            } catch (IOException | UncheckedIOException e) {
+                log("Cannot open journal in " + directory + ", this crawl cannot be resumed: " + e.getMessage());
+                return null;
+            }
+        }
+
+        private SpillQueue openSpillQueue() {
+            Path directory = DATA_DIR.resolve("frontier");
+            try {
+                return new SpillQueue(directory, FRONTIER_SEGMENT_BYTES);
+            } catch (IOException e) {
+                log("Cannot spill frontier to " + directory + ", keeping it in memory: " + e.getMessage());
+                return null;
+            }
+        }
+
+        private PageStore openPageStore() {
+            Path directory = DATA_DIR.resolve("pages");
+            try {
+                return new PageStore(directory, PAGE_SEGMENT_BYTES);
+            } catch (IOException e) {
+                log("Cannot open page store in " + directory + ", page bodies will not be kept: " + e.getMessage());
+                return null;
+            }
+        }
+
+        private WarcWriter openWarcWriter() {
+            Path directory = DATA_DIR.resolve("warc");
+            try {
+                WarcWriter writer = new WarcWriter(directory, WARC_MAX_FILE_BYTES);
+                log("Writing WARC files to " + directory.toAbsolutePath());
+                return writer;
+            } catch (IOException e) {
+                log("Cannot write WARC files to " + directory + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        private void clearPageStore() {
+            if (pageStore == null) {
+                return;
+            }
+            try {
+                pageStore.clear();
+            } catch (IOException e) {
+                log("Cannot clear page store: " + e.getMessage());
+            }
+        }
+
+        private void closeStores() {
+            close(visitedUrls, "visited set");
+            close(pageStore, "page store");
+            close(warcWriter, "WARC file");
+            warcWriter = null;
+        }
+
+        private void close(Closeable resource, String description) {
+            if (resource == null) {
+                return;
+            }
+            try {
+                resource.close();
+            } catch (IOException | UncheckedIOException e) {
+                log("Error saving " + description + ": " + e.getMessage());
+            }
+        }
+
+        private class CrawlerWorker implements Runnable {
+            private final Run run;
+            private final int maxDepth;
+            private final String domainFilter;
+
+            CrawlerWorker(Run run, int maxDepth, String domainFilter) {
+                this.run = run;
+                this.maxDepth = maxDepth;
+                this.domainFilter = domainFilter;
+            }
+
+            /** {@code false} once this worker's run was stopped or finished, even if another is running. */
+            private boolean running() {
+                return isCrawling && currentRun == run;
+            }
+
+            @Override
+            public void run() {
+                while (running()) {
+                    try {
+                        if (!awaitResumed() || !running()) {
+                            break;
+                        }
+                        DequeueEvent dequeued = new DequeueEvent();
+                        dequeued.begin();
+                        CrawlTask task = run.frontier.poll(1, TimeUnit.SECONDS);
+                        if (task != null) {
+                            dequeued.commit(task);
+                            // Paused while polling: hold the task rather than fetch it, and drop it
+                            // if the crawl is stopped instead; the journal still has it queued.
+                            if (!awaitResumed() || !running()) {
+                                break;
+                            }
+                            processPage(task);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            /**
+             * Fetches {@code task} and reports it back to the frontier once the fetch has finished.
+             * Tasks are scoped and claimed before they are queued, so every one is fetched. Each
+             * task ends with {@link #taskDone}, after the links it found have been queued.
+             */
+            private void processPage(CrawlTask task) throws InterruptedException {
+                String url = task.url;
+                int depth = task.depth;
+                switch (executionMode) {
+                    case FIXED_POOL:
+                        run.inFlight.incrementAndGet();
+                        try {
+                            fetchBlocking(url, depth);
+                        } finally {
+                            run.inFlight.decrementAndGet();
+                            run.frontier.complete(task);
+                            journalCompleted(task);
+                            taskDone();
+                        }
+                        break;
+                    case VIRTUAL_THREADS:
+                        acquireInFlight(task);
+                        virtualThreadExecutor.execute(() -> {
+                            try {
+                                fetchBlocking(url, depth);
+                            } finally {
+                                releaseInFlight();
+                                run.frontier.complete(task);
+                                journalCompleted(task);
+                                taskDone();
+                            }
+                        });
+                        break;
+                    default:
+                        acquireInFlight(task);
+                        FetchEvent fetched = new FetchEvent();
+                        fetched.begin();
+                        CompletableFuture<PageInfo> pending;
+                        try {
+                            pending = pageSource.fetch(url);
+                        } catch (RuntimeException e) {
+                            pending = CompletableFuture.failedFuture(e); // still release the permit and finish the task
+                        }
+                        pending.whenComplete((pageInfo, error) -> {
+                            releaseInFlight();
+                            run.frontier.complete(task);
+                            try {
+                                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                                fetched.commit(url, pageInfo, cause);
+                                if (!running()) {
+                                    // stopped: shutdownNow rejects the pending callbacks, which is not a fetch error
+                                } else if (error != null) {
+                                    recordError("fetch", cause);
+                                    log("Error fetching " + url + ": " + cause.getMessage());
+                                } else if (pageInfo != null) {
+                                    onResponse(pageInfo, depth);
+                                }
+                            } finally {
+                                journalCompleted(task);
+                                taskDone();
+                            }
+                        });
+                }
+            }
+
+            private void acquireInFlight(CrawlTask task) throws InterruptedException {
+                try {
+                    run.inFlightRequests.acquire();
+                } catch (InterruptedException e) {
+                    run.frontier.complete(task);
+                    taskDone();
+                    throw e;
+                }
+                run.inFlight.incrementAndGet();
+            }
+
+            /**
+             * Logs {@code task} as done, unless the crawl was stopped under it: then its links may
+             * not have been queued, and a resumed crawl fetches it again.
+             */
+            private void journalCompleted(CrawlTask task) {
+                if (run.journal != null && running()) {
+                    run.journal.completed(task);
+                }
+            }
+
+            /** Marks one task of {@link #run} as done, ending the crawl if it was the last one. */
+            private void taskDone() {
+                if (run.outstanding.decrementAndGet() == 0) {
+                    new Thread(() -> finish(run), "crawl-finisher").start();
+                }
+            }
+
+            private void releaseInFlight() {
+                run.inFlight.decrementAndGet();
+                run.inFlightRequests.release();
+            }
+
+            private void fetchBlocking(String url, int depth) {
+                FetchEvent fetched = new FetchEvent();
+                fetched.begin();
+                try {
+                    PageInfo pageInfo = pageSource.fetchBlocking(url);
+                    fetched.commit(url, pageInfo, null);
+                    if (pageInfo != null && running()) {
+                        onResponse(pageInfo, depth);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    fetched.commit(url, null, e);
+                    if (running()) { // a stop interrupts blocking fetches; that is not a fetch error
+                        recordError("fetch", e);
+                        log("Error fetching " + url + ": " + e.getMessage());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            /** Crawls a 200 response; any other status counts as a fetch error of type {@code http_5xx} etc. */
+            private void onResponse(PageInfo pageInfo, int depth) {
+                if (pageInfo.statusCode == 200) {
+                    onPageFetched(pageInfo, depth);
+                    return;
+                }
+                metrics.counter(ERRORS + "{stage=\"fetch\",type=\"http_" + pageInfo.statusCode / 100 + "xx\"}")
+                        .increment();
+                log("HTTP " + pageInfo.statusCode + " fetching " + pageInfo.url);
+            }
+
+            private void onPageFetched(PageInfo pageInfo, int depth) {
+                storePage(pageInfo);
+                archivePage(pageInfo);
+                pagesFetched.increment();
+                bytesDownloaded.add(pageInfo.content.length);
+                listener.onPage(pageInfo, depth);
+
+                enqueueLinks(pageInfo.links, depth + 1);
+            }
+
+            private void storePage(PageInfo pageInfo) {
+                if (pageStore == null) {
+                    return;
+                }
+                StoreEvent stored = new StoreEvent();
+                stored.begin();
+                try {
+                    pageStore.store(pageInfo.url, pageInfo.content);
+                    stored.commit("pages", pageInfo);
+                } catch (IOException e) {
+                    recordError("store", e);
+                    log("Error storing " + pageInfo.url + ": " + e.getMessage());
+                }
+            }
+
+            private void archivePage(PageInfo pageInfo) {
+                WarcWriter writer = warcWriter;
+                if (writer == null) {
+                    return;
+                }
+                StoreEvent archived = new StoreEvent();
+                archived.begin();
+                try {
+                    writer.write(pageInfo);
+                    archived.commit("warc", pageInfo);
+                } catch (IOException e) {
+                    recordError("archive", e);
+                    log("Error archiving " + pageInfo.url + ": " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            /**
+             * Scoping stage between link extraction and the frontier: drops links beyond the depth
+             * limit, outside the domain filter or longer than {@code crawler.maxUrlLength}, then
+             * claims the rest in one batch against the visited set so only never-seen URLs are
+             * queued. Everything dropped is dropped here, before the journal and the outstanding
+             * count see it.
+             */
+            private void enqueueLinks(List<String> links, int depth) {
+                if (depth > maxDepth || links.isEmpty()) {
+                    return;
+                }
+                List<String> inScope = new ArrayList<>(links.size());
+                for (String link : links) {
+                    if (link.length() <= MAX_URL_LENGTH && link.contains(domainFilter)) {
+                        inScope.add(link);
+                    }
+                }
+                boolean[] claimed = visitedUrls.claimAll(inScope);
+                List<CrawlTask> tasks = new ArrayList<>(inScope.size());
+                for (int i = 0; i < claimed.length; i++) {
+                    if (claimed[i]) {
+                        tasks.add(new CrawlTask(inScope.get(i), depth));
+                    }
+                }
+                if (run.journal != null) {
+                    run.journal.added(tasks); // before the page they came from is logged as completed
+                }
+                run.outstanding.addAndGet(tasks.size()); // before the tasks become visible to workers
+                run.frontier.offerAll(tasks);
+                EnqueueEvent.commitAll(tasks);
+            }
+        }
+    }
+
+    /**
+     * Sets {@code jdk.httpclient.keepalive.timeout} to {@code crawler.pool.idleTimeoutSeconds}, so
+     * the JDK keeps idle connections exactly as long as {@link HostConnectionPool} counts them
+     * warm. The property is process-wide and the JDK reads it only once, when the first
+     * HttpClient is built, so entry points call this before anything else. An explicit
+     * {@code -Djdk.httpclient.keepalive.timeout} wins.
+     */
+    static void configureKeepAlive() {
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout",
+                    Integer.toString(CrawlEngine.POOL_IDLE_TIMEOUT_SECONDS));
+        }
+    }
+
+    /**
+     * Command-line client of {@link CrawlEngine} for machines without a display: runs one crawl
+     * without loading JavaFX, printing every crawled URL to stdout and progress to stderr once
+     * a second. Settings without a positional argument come from system properties
+     * ({@code crawler.concurrency}, {@code crawler.hostDelayMillis}, {@code crawler.hostConcurrency},
+     * {@code crawler.resume}, {@code crawler.warc}, {@code crawler.replayDir}). The crawl runs
+     * until it runs out of pages, or is stopped after {@code seconds} if that is not 0; the exit
+     * status is 0 only if it finished. With {@code crawler.resume}, a crawl that was stopped or
+     * killed continues from its journal.
+     */
+    private static class HeadlessCrawl {
+        static void run(String[] args) throws Exception {
+            if (args.length < 3) {
+                System.err.println("usage: --headless <startUrl> <domainFilter> [maxDepth] [mode] [seconds]");
+                return;
+            }
+            CrawlEngine.Settings settings = new CrawlEngine.Settings(args[1], args[2]);
+            if (args.length > 3) {
+                settings.maxDepth = Integer.parseInt(args[3]);
+            }
+            if (args.length > 4) {
+                settings.mode = ExecutionMode.valueOf(args[4]);
+            }
+            long seconds = args.length > 5 ? Long.parseLong(args[5]) : 0;
+            settings.concurrency = Integer.getInteger("crawler.concurrency", settings.concurrency);
+            settings.hostDelay = Duration.ofMillis(
+                    Integer.getInteger("crawler.hostDelayMillis", CrawlEngine.DEFAULT_HOST_DELAY_MILLIS));
+            settings.hostConcurrency = Integer.getInteger("crawler.hostConcurrency", settings.hostConcurrency);
+            settings.resume = Boolean.getBoolean("crawler.resume");
+            settings.warc = Boolean.getBoolean("crawler.warc");
+            String replayDir = System.getProperty("crawler.replayDir");
+            if (replayDir != null && !replayDir.isBlank()) {
+                settings.replayDir = Paths.get(replayDir);
+            }
+
+            CrawlEngine engine = new CrawlEngine(new CrawlEngine.Listener() {
+                @Override
+                public void onPage(PageInfo page, int depth) {
+                    System.out.println(page.url);
+                }
+
+                @Override
+                public void onMessage(String message) {
+                    System.err.println(message);
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread(engine::close));
+            CompletableFuture<CrawlEngine.Result> completion;
+            try {
+                completion = engine.start(settings);
+            } catch (IllegalArgumentException | IOException e) {
+                System.err.println(e.getMessage());
+                engine.close();
+                System.exit(2);
+                return;
+            }
+            for (long elapsed = 0; !completion.isDone() && (seconds == 0 || elapsed < seconds); elapsed++) {
+                try {
+                    completion.get(1, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    CrawlEngine.Stats stats = engine.stats();
+                    System.err.printf("%ds: %d pages, %d KB, %d errors, %d in flight | leases: %s | frontier: %s%n",
+                            stats.elapsed.toSeconds(), stats.pagesCrawled, stats.bytesDownloaded / 1024, stats.errors,
+                            stats.inFlight, stats.leases, stats.frontier);
+                }
+            }
+            if (!completion.isDone()) {
+                engine.stop();
+            }
+            CrawlEngine.Result result = completion.join();
+            System.err.println("latency: " + result.latency + ", slowest TTFB p99: " + result.slowestHost);
+            engine.close();
+            System.exit(result.finished ? 0 : 1);
+        }
+    }
+
+    /**
+     * Politeness-aware frontier in the style of Mercator's back-end queues: one FIFO queue per
+     * host plus a heap of hosts ordered by the earliest time each may be fetched from again.
+     * {@link #poll} always hands out a task from the host that became ready first, so workers
+     * spread over all hosts with pending work instead of piling onto one. A host is fetched
+     * from at most once per {@code hostDelay} and by at most {@code maxPerHost} tasks at a
+     * time; every polled task must be passed back to {@link #complete} once its fetch is done.
+     * A host that runs out of work inside its delay is parked on a second heap and forgotten
+     * once the delay has passed, so the frontier only holds hosts with work or a pending delay.
+     *
+     * <p>Only the head of the frontier lives on the heap. Once {@code hotCapacity} tasks are
+     * queued in memory, further tasks go to the {@link SpillQueue} in arrival order and are
+     * pulled back in batches as the in-memory queues drain below half capacity.
+     */
+    private static class HostFrontier implements Closeable {
+        private final long hostDelayNanos;
+        private final int maxPerHost;
+        private final int hotCapacity;
+        private volatile SpillQueue spill;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final Map<String, HostQueue> hosts = new HashMap<>();
+        private final PriorityQueue<HostQueue> readyHeap =
+                new PriorityQueue<>(Comparator.comparingLong((HostQueue queue) -> queue.nextFetchNanos));
+        /** Idle hosts still inside their delay, by when it ends. */
+        private final PriorityQueue<HostQueue> idleHeap =
+                new PriorityQueue<>(Comparator.comparingLong((HostQueue queue) -> queue.nextFetchNanos));
+        private volatile int size; // written under the lock, read without it by size()
+
+        /** {@code spill} may be {@code null} to keep the whole frontier in memory. */
+        HostFrontier(Duration hostDelay, int maxPerHost, SpillQueue spill, int hotCapacity) {
+            this.hostDelayNanos = hostDelay.toNanos();
+            this.maxPerHost = maxPerHost;
+            this.spill = spill;
+            this.hotCapacity = hotCapacity;
+        }
+
+        void offer(CrawlTask task) {
+            lock.lock();
+            try {
+                offerLocked(task);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Queues a batch of tasks under a single lock acquisition. */
+        void offerAll(List<CrawlTask> tasks) {
+            if (tasks.isEmpty()) {
+                return;
+            }
+            lock.lock();
+            try {
+                for (CrawlTask task : tasks) {
+                    offerLocked(task);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Takes the next task from the earliest-ready host, waiting up to {@code timeout} for one
+         * to become available. Returns {@code null} on timeout.
+         */
+        CrawlTask poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long remaining = unit.toNanos(timeout);
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    HostQueue head = readyHeap.peek();
+                    long now = System.nanoTime();
+                    forgetIdleHosts(now);
+                    if (head != null && head.nextFetchNanos <= now) {
+                        readyHeap.poll();
+                        head.scheduled = false;
+                        head.inFlight++;
+                        head.nextFetchNanos = now + hostDelayNanos;
+                        size--;
+                        CrawlTask task = head.tasks.poll();
+                        scheduleIfEligible(head);
+                        refillIfLow();
+                        return task;
+                    }
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    long wait = head == null ? remaining : Math.min(remaining, head.nextFetchNanos - now);
+                    remaining -= wait - changed.awaitNanos(wait);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Returns the host slot held by a task handed out by {@link #poll}. */
+        void complete(CrawlTask task) {
+            lock.lock();
+            try {
+                HostQueue queue = hosts.get(hostOf(task.url));
+                if (queue == null) {
+                    return; // cleared while the task was in flight
+                }
+                queue.inFlight--;
+                long now = System.nanoTime();
+                if (queue.inFlight == 0 && queue.tasks.isEmpty()) {
+                    if (queue.nextFetchNanos <= now) {
+                        hosts.remove(queue.host);
+                    } else {
+                        park(queue); // its delay still applies to tasks that arrive meanwhile
+                    }
+                } else {
+                    scheduleIfEligible(queue);
+                }
+                forgetIdleHosts(now);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Number of queued tasks, read without taking the lock so that metrics never wait on the
+         * workers; a task moving between memory and the spill queue may be counted twice or not
+         * at all.
+         */
+        long size() {
+            SpillQueue spilled = spill;
+            return size + (spilled == null ? 0 : spilled.size());
+        }
+
+        String stats() {
+            lock.lock();
+            try {
+                forgetIdleHosts(System.nanoTime());
+                long spilled = spill == null ? 0 : spill.size();
+                return String.format("%d queued (%d spilled to disk) across %d hosts, %d hosts ready",
+                        size + spilled, spilled, hosts.size(), readyHeap.size());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                hosts.clear();
+                readyHeap.clear();
+                idleHeap.clear();
+                size = 0;
+                if (spill != null) {
+                    spill.clear();
+                }
+            } catch (UncheckedIOException e) {
+                closeSpill();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Drops all queued tasks and deletes the spill segments. */
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                hosts.clear();
+                readyHeap.clear();
+                idleHeap.clear();
+                size = 0;
+                closeSpill();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void offerLocked(CrawlTask task) {
+            if (spill != null && (size >= hotCapacity || !spill.isEmpty())) {
+                try {
+                    spill.add(task);
+                    refillIfLow();
+                    return;
+                } catch (UncheckedIOException e) {
+                    closeSpill(); // keep going in memory rather than lose tasks
+                } catch (IllegalArgumentException e) {
+                    // too long to spill: keep this one in memory, it is already counted as queued
+                }
+            }
+            addHot(task);
+        }
+
+        private void addHot(CrawlTask task) {
+            HostQueue queue = hosts.computeIfAbsent(hostOf(task.url), HostQueue::new);
+            queue.tasks.add(task);
+            size++;
+            scheduleIfEligible(queue);
+        }
+
+        private void refillIfLow() {
+            try {
+                while (spill != null && size < hotCapacity / 2 && !spill.isEmpty()) {
+                    addHot(spill.poll());
+                }
+            } catch (UncheckedIOException e) {
+                closeSpill();
+            }
+        }
+
+        private void closeSpill() {
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException | UncheckedIOException e) {
+                    // the segments are scratch data; nothing more to do
+                }
+                spill = null;
+            }
+        }
+
+        private void park(HostQueue queue) {
+            if (!queue.parked) {
+                queue.parked = true;
+                idleHeap.add(queue);
+            }
+        }
+
+        /**
+         * Drops parked hosts whose delay has ended and that are still idle; a parked host that got
+         * work again is just unparked. A host fetched from again while parked has its delay moved
+         * on in place, which can hold back the heap by up to one delay; nothing is lost by that.
+         */
+        private void forgetIdleHosts(long now) {
+            while (!idleHeap.isEmpty() && idleHeap.peek().nextFetchNanos <= now) {
+                HostQueue queue = idleHeap.poll();
+                queue.parked = false;
+                if (queue.inFlight == 0 && queue.tasks.isEmpty() && hosts.get(queue.host) == queue) {
+                    hosts.remove(queue.host);
+                }
+            }
+        }
+
+        private void scheduleIfEligible(HostQueue queue) {
+            if (!queue.scheduled && !queue.tasks.isEmpty() && queue.inFlight < maxPerHost) {
+                queue.scheduled = true;
+                readyHeap.add(queue);
+                changed.signal();
+            }
+        }
+
+        /** Lower-cased authority of {@code url}, or the whole string if it has none. */
+        static String hostOf(String url) {
+            int start = url.indexOf("://");
+            if (start < 0) {
+                return url;
+            }
+            start += 3;
+            int end = start;
+            while (end < url.length()) {
+                char c = url.charAt(end);
+                if (c == '/' || c == '?' || c == '#') {
+                    break;
+                }
+                end++;
+            }
+            return url.substring(start, end).toLowerCase(Locale.ROOT);
+        }
+
+        private static final class HostQueue {
+            final String host;
+            final ArrayDeque<CrawlTask> tasks = new ArrayDeque<>();
+            long nextFetchNanos;
+            int inFlight;
+            boolean scheduled;
+            boolean parked;
+
+            HostQueue(String host) {
+                this.host = host;
+            }
+        }
+    }
+
+    /**
+     * FIFO queue of crawl tasks kept in append-only, memory-mapped segment files of
+     * {@code segmentBytes} each, so its size does not count against the heap. Records are
+     * written to the tail segment and read back sequentially from the head; a segment that
+     * has been read to the end is recycled as a future tail (a couple are kept as spares, the
+     * rest deleted). Whenever the queue runs empty both ends rewind to the start of the current
+     * segment. Not thread-safe; {@link HostFrontier} calls it under its lock.
+     *
+     * <p>Record layout: UTF-8 URL length (int), depth (int), URL bytes. A length of -1 marks the
+     * end of a segment that had no room for the next record.
+     */
+    private static class SpillQueue implements Closeable {
+        private static final int END_OF_SEGMENT = -1;
+        private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+        private static final int MAX_SPARE_SEGMENTS = 2;
+
+        private final Path directory;
+        private final int segmentBytes;
+        private final ArrayDeque<Path> fullSegments = new ArrayDeque<>();
+        private final ArrayDeque<Path> spareSegments = new ArrayDeque<>();
+        private Path writePath;
+        private MappedByteBuffer writeBuffer;
+        private Path readPath;
+        private ByteBuffer readBuffer;
+        private volatile long size;
+        private long nextSegmentId;
+
+        /** Opens a spill queue in {@code directory}, discarding segments left by an earlier run. */
+        SpillQueue(Path directory, int segmentBytes) throws IOException {
+            this.directory = directory;
+            this.segmentBytes = segmentBytes;
+            Files.createDirectories(directory);
+            deleteSegmentFiles();
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long size() {
+            return size;
+        }
+
+        void add(CrawlTask task) {
+            byte[] url = task.url.getBytes(StandardCharsets.UTF_8);
+            int recordBytes = RECORD_HEADER_BYTES + url.length;
+            if (recordBytes > segmentBytes) {
+                throw new IllegalArgumentException("URL too long to spill: " + url.length + " bytes");
+            }
+            if (writeBuffer == null || writeBuffer.remaining() < recordBytes) {
+                rollWriteSegment();
+            }
+            writeBuffer.putInt(url.length).putInt(task.depth).put(url);
+            size++;
+        }
+
+        /** Returns the oldest spilled task, or {@code null} if there is none. */
+        CrawlTask poll() {
+            if (size == 0) {
+                return null;
+            }
+            while (true) {
+                if (readBuffer == null) {
+                    openNextReadSegment();
+                }
+                boolean tail = readPath.equals(writePath);
+                int limit = tail ? writeBuffer.position() : readBuffer.limit();
+                if (readBuffer.position() + RECORD_HEADER_BYTES <= limit) {
+                    int length = readBuffer.getInt();
+                    if (length != END_OF_SEGMENT) {
+                        int depth = readBuffer.getInt();
+                        byte[] url = new byte[length];
+                        readBuffer.get(url);
+                        if (--size == 0) {
+                            rewind();
+                        }
+                        return new CrawlTask(new String(url, StandardCharsets.UTF_8), depth);
+                    }
+                }
+                // The head segment is used up and the tail has moved on.
+                recycle(readPath);
+                readPath = null;
+                readBuffer = null;
+            }
+        }
+
+        void clear() {
+            fullSegments.clear();
+            spareSegments.clear();
+            writePath = null;
+            writeBuffer = null;
+            readPath = null;
+            readBuffer = null;
+            size = 0;
+            try {
+                deleteSegmentFiles();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            clear();
+        }
+
+        private void rollWriteSegment() {
+            if (writeBuffer != null) {
+                if (writeBuffer.remaining() >= Integer.BYTES) {
+                    writeBuffer.putInt(END_OF_SEGMENT);
+                }
+                if (!writePath.equals(readPath)) {
+                    fullSegments.add(writePath);
+                }
+            }
+            Path path = spareSegments.isEmpty()
+                    ? directory.resolve(String.format("segment-%06d.spill", nextSegmentId++))
+                    : spareSegments.poll();
+            writeBuffer = map(path);
+            writePath = path;
+        }
+
+        private void openNextReadSegment() {
+            if (fullSegments.isEmpty()) {
+                readPath = writePath;
+                readBuffer = writeBuffer.duplicate().position(0);
+            } else {
+                readPath = fullSegments.poll();
+                readBuffer = map(readPath);
+            }
+        }
+
+        /** Called when the last spilled task has been read: start over at the head of the tail segment. */
+        private void rewind() {
+            if (readPath != null && !readPath.equals(writePath)) {
+                recycle(readPath);
+            }
+            writeBuffer.position(0);
+            readPath = writePath;
+            readBuffer = writeBuffer.duplicate().position(0);
+        }
+
+        private void recycle(Path segment) {
+            if (spareSegments.size() < MAX_SPARE_SEGMENTS) {
+                spareSegments.add(segment);
+                return;
+            }
+            try {
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private MappedByteBuffer map(Path segment) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void deleteSegmentFiles() throws IOException {
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "segment-*.spill")) {
+                for (Path segment : segments) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write-ahead log of a crawl's frontier, from which a crawl that was stopped or killed picks
+     * up where it left off. Every task is logged as ADDED when it is claimed and queued, and as
+     * COMPLETED once it has been fetched and its links queued; the visited set is the union of
+     * everything ever added, the frontier everything added and not yet completed. Appends only
+     * encode into a buffer; a writer thread writes and fsyncs whatever accumulated every
+     * {@code syncMillis}, so one fsync commits a whole group of records. Because links are logged
+     * before the page they came from is completed, any durable prefix of the log is a consistent
+     * state: losing the tail in a crash only means refetching the last few pages.
+     *
+     * <p>A snapshot {@code snapshot-N.snap} holds the state as of the start of {@code log-N.wal};
+     * later changes are in {@code log-N.wal}, {@code log-N+1.wal} and so on. Once the open log
+     * passes {@code compactBytes} the writer moves on to the next log and a background thread
+     * folds the previous snapshot and the closed logs into a new snapshot, dropping completed
+     * tasks down to their fingerprints. A new crawl starts from a fresh snapshot; a resumed one
+     * cuts the torn tail off the journal it recovered from and carries on in the next log.
+     *
+     * <p>Recovery and compaction never hold the queue in memory: a first pass over the logs
+     * collects the fingerprints of completed tasks in an {@link OffHeapLongSet}, and a second
+     * streams the snapshot's queued tasks and the logged ones, less the completed, straight to
+     * their destination. Within one journal a URL is added at most once, since it is only added
+     * after being claimed, so the order of its records does not matter.
+     *
+     * <p>Log record: payload length (int), CRC32C of the payload (int), payload: type (byte),
+     * then depth (int) and UTF-8 URL for ADDED, or the URL fingerprint (long) for COMPLETED.
+     * Snapshot: magic (long), visited count (long), queued count (long), visited fingerprints
+     * (long each), queued tasks as depth (int), URL length (int) and URL bytes. Snapshots are
+     * written to a temporary file, forced and renamed into place.
+     */
+    private static class CrawlJournal implements Closeable {
+        private static final long SNAPSHOT_MAGIC = 0x4a524e4c534e4150L; // "JRNLSNAP"
+        private static final byte ADDED = 1;
+        private static final byte COMPLETED = 2;
+        private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+        private static final int MAX_RECORD_BYTES = 1 << 20;
+        private static final int MAX_BUFFERED_BYTES = 16 * 1024 * 1024;
+        private static final int RESTORE_BATCH = 4096;
+
+        private final Path directory;
+        private final long syncMillis;
+        private final long compactBytes;
+        private final Consumer<IOException> onFailure;
+        private final LongAdder bytesWritten;
+        private final LongAdder syncs;
+        private final CRC32C checksum = new CRC32C(); // guarded by this
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024); // guarded by this
+        private boolean closing; // guarded by this
+        private volatile IOException failure;
+        private final Thread writerThread;
+        private final ExecutorService compactor;
+        private Future<?> compaction = CompletableFuture.completedFuture(null); // writer thread only
+        private volatile long snapshotId;
+        private FileChannel log; // writer thread only
+        private long logId;
+        private long logBytes;
+
+        /** What {@link #recover} read back, and where {@link #reopen} carries on. */
+        static final class Recovered {
+            final long visited;
+            final long queued;
+            private final long snapshotId;
+            private final long nextLogId;
+
+            private Recovered(long visited, long queued, long snapshotId, long nextLogId) {
+                this.visited = visited;
+                this.queued = queued;
+                this.snapshotId = snapshotId;
+                this.nextLogId = nextLogId;
+            }
+        }
+
+        /** Receives the records of a log in order. */
+        private interface RecordVisitor {
+            void added(CrawlTask task);
+
+            void completed(long fingerprint);
+        }
+
+        private CrawlJournal(Path directory, long snapshotId, long logId, long syncMillis, long compactBytes,
+                Consumer<IOException> onFailure, LongAdder bytesWritten, LongAdder syncs) throws IOException {
+            this.directory = directory;
+            this.snapshotId = snapshotId;
+            this.logId = logId;
+            this.syncMillis = syncMillis;
+            this.compactBytes = compactBytes;
+            this.onFailure = onFailure;
+            this.bytesWritten = bytesWritten;
+            this.syncs = syncs;
+            log = FileChannel.open(logPath(logId), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            compactor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            writerThread = new Thread(this::drain, "journal-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+
+        /**
+         * Starts a journal in {@code directory} whose snapshot is {@code visited} with nothing
+         * queued, and deletes what earlier journals left there. {@code onFailure} is told once
+         * if the journal cannot be written; appends are dropped from then on.
+         */
+        static CrawlJournal open(Path directory, VisitedSet visited, long syncMillis, long compactBytes,
+                Consumer<IOException> onFailure, LongAdder bytesWritten, LongAdder syncs) throws IOException {
+            Files.createDirectories(directory);
+            long id = 0;
+            for (Path file : journalFiles(directory)) {
+                id = Math.max(id, fileId(file) + 1);
+            }
+            writeSnapshot(directory, id, visited::forEachFingerprint);
+            deleteBefore(directory, id);
+            return new CrawlJournal(directory, id, id, syncMillis, compactBytes, onFailure, bytesWritten, syncs);
+        }
+
+        /** Carries on with the journal {@link #recover} read back, in the log after its last one. */
+        static CrawlJournal reopen(Path directory, Recovered recovered, long syncMillis, long compactBytes,
+                Consumer<IOException> onFailure, LongAdder bytesWritten, LongAdder syncs) throws IOException {
+            return new CrawlJournal(directory, recovered.snapshotId, recovered.nextLogId, syncMillis, compactBytes,
+                    onFailure, bytesWritten, syncs);
+        }
+
+        /**
+         * Rebuilds {@code visited} from the latest snapshot in {@code directory} and the logs
+         * after it, and hands each task that was queued or in flight to {@code queue}, which
+         * returns whether it took the task. Replay stops at the first torn or corrupt record,
+         * which is cut off together with any later log so that {@link #reopen} can append after
+         * it. Returns {@code null}, leaving {@code visited} alone, if there is no journal.
+         */
+        static Recovered recover(Path directory, VisitedSet visited, Predicate<CrawlTask> queue) throws IOException {
+            long latest = -1;
+            for (Path file : journalFiles(directory)) {
+                if (file.getFileName().toString().endsWith(".snap")) {
+                    latest = Math.max(latest, fileId(file));
+                }
+            }
+            if (latest < 0) {
+                return null;
+            }
+            deleteBefore(directory, latest);
+            visited.clear();
+            long[] batch = new long[RESTORE_BATCH];
+            int[] batched = new int[1];
+            long[] restored = new long[1];
+            LongConsumer restore = fingerprint -> {
+                batch[batched[0]++] = fingerprint;
+                restored[0]++;
+                if (batched[0] == batch.length) {
+                    visited.addFingerprints(batch.clone());
+                    batched[0] = 0;
+                }
+            };
+            OffHeapLongSet completed = OffHeapLongSet.inMemory();
+            long[] queued = new long[1];
+            Consumer<CrawlTask> pending = task -> {
+                if (!completed.contains(UrlFingerprint.of(task.url)) && queue.test(task)) {
+                    queued[0]++;
+                }
+            };
+            long lastLog;
+            try (SnapshotInput snapshot = new SnapshotInput(snapshotPath(directory, latest))) {
+                snapshot.readVisited(restore);
+                lastLog = replayLogs(directory, latest, Long.MAX_VALUE, true, new RecordVisitor() {
+                    @Override
+                    public void added(CrawlTask task) {
+                        restore.accept(UrlFingerprint.of(task.url));
+                    }
+
+                    @Override
+                    public void completed(long fingerprint) {
+                        completed.add(fingerprint);
+                    }
+                });
+                visited.addFingerprints(Arrays.copyOf(batch, batched[0]));
+                snapshot.readQueued(pending);
+            }
+            replayLogs(directory, latest, Long.MAX_VALUE, false, new RecordVisitor() {
+                @Override
+                public void added(CrawlTask task) {
+                    pending.accept(task);
+                }
+
+                @Override
+                public void completed(long fingerprint) {
+                }
+            });
+            return new Recovered(restored[0], queued[0], latest, Math.max(latest, lastLog + 1));
+        }
+
+        /** Deletes every journal file in {@code directory}. */
+        static void delete(Path directory) throws IOException {
+            if (Files.isDirectory(directory)) {
+                deleteBefore(directory, Long.MAX_VALUE);
+            }
+        }
+
+        /** Logs tasks that were just claimed, before they are queued. */
+        void added(List<CrawlTask> tasks) {
+            if (tasks.isEmpty() || failure != null) {
+                return;
+            }
+            byte[][] urls = new byte[tasks.size()][];
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = tasks.get(i).url.getBytes(StandardCharsets.UTF_8);
+            }
+            synchronized (this) {
+                if (!awaitRoom()) {
+                    return;
+                }
+                boolean wasEmpty = buffer.position() == 0;
+                for (int i = 0; i < urls.length; i++) {
+                    if (urls[i].length + 1 + Integer.BYTES > MAX_RECORD_BYTES) {
+                        continue; // cannot be replayed; the task is simply not recovered
+                    }
+                    int payload = beginRecord(1 + Integer.BYTES + urls[i].length);
+                    buffer.put(ADDED).putInt(tasks.get(i).depth).put(urls[i]);
+                    endRecord(payload);
+                }
+                if (wasEmpty) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /** Logs that {@code task} was fetched and the links it found were {@link #added}. */
+        void completed(CrawlTask task) {
+            if (failure != null) {
+                return;
+            }
+            long fingerprint = UrlFingerprint.of(task.url);
+            synchronized (this) {
+                if (!awaitRoom()) {
+                    return;
+                }
+                boolean wasEmpty = buffer.position() == 0;
+                int payload = beginRecord(1 + Long.BYTES);
+                buffer.put(COMPLETED).putLong(fingerprint);
+                endRecord(payload);
+                if (wasEmpty) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /** Commits everything appended so far and waits for a running compaction to end. */
+        @Override
+        public void close() {
+            synchronized (this) {
+                closing = true;
+                notifyAll();
+            }
+            try {
+                writerThread.join();
+                compactor.shutdown();
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** Holds appenders back while the writer is {@link #MAX_BUFFERED_BYTES} behind. */
+        private boolean awaitRoom() {
+            try {
+                while (buffer.position() >= MAX_BUFFERED_BYTES && !closing && failure == null) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !closing && failure == null;
+        }
+
+        private int beginRecord(int payloadBytes) {
+            if (buffer.remaining() < RECORD_HEADER_BYTES + payloadBytes) {
+                int capacity = Math.max(buffer.capacity() * 2, buffer.position() + RECORD_HEADER_BYTES + payloadBytes);
+                buffer = ByteBuffer.allocate(capacity).put(buffer.flip());
+            }
+            buffer.putInt(payloadBytes).putInt(0);
+            return buffer.position();
+        }
+
+        private void endRecord(int payloadStart) {
+            checksum.reset();
+            checksum.update(buffer.array(), payloadStart, buffer.position() - payloadStart);
+            buffer.putInt(payloadStart - Integer.BYTES, (int) checksum.getValue());
+        }
+
+        /**
+         * Writer thread: swaps out the append buffer, writes and forces it, then sleeps for
+         * {@code syncMillis} while the next group accumulates.
+         */
+        private void drain() {
+            ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+            try {
+                while (true) {
+                    ByteBuffer batch;
+                    synchronized (this) {
+                        while (buffer.position() == 0 && !closing) {
+                            wait();
+                        }
+                        if (buffer.position() == 0) {
+                            break;
+                        }
+                        batch = buffer;
+                        buffer = spare;
+                        notifyAll();
+                    }
+                    batch.flip();
+                    long bytes = batch.remaining();
+                    while (batch.hasRemaining()) {
+                        log.write(batch);
+                    }
+                    log.force(false);
+                    syncs.increment();
+                    bytesWritten.add(bytes);
+                    logBytes += bytes;
+                    spare = batch.clear();
+                    if (logBytes >= compactBytes && compaction.isDone()) {
+                        rollLog();
+                    }
+                    Thread.sleep(syncMillis);
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                fail(new InterruptedIOException("Journal writer interrupted"));
+            } finally {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    // everything written was forced already
+                }
+            }
+        }
+
+        /** Continues in the next log and folds the closed ones into a snapshot in the background. */
+        private void rollLog() throws IOException {
+            log.close();
+            logId++;
+            logBytes = 0;
+            log = FileChannel.open(logPath(logId), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            long from = snapshotId;
+            long to = logId;
+            compaction = compactor.submit(() -> {
+                try {
+                    compact(from, to);
+                } catch (IOException | UncheckedIOException e) {
+                    fail(e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause() : (IOException) e);
+                }
+            });
+        }
+
+        /** Writes snapshot {@code to} from snapshot {@code from} and the logs in between. */
+        private void compact(long from, long to) throws IOException {
+            OffHeapLongSet completed = OffHeapLongSet.inMemory();
+            Path temporary = directory.resolve(String.format("snapshot-%06d.snap.tmp", to));
+            try (SnapshotInput in = new SnapshotInput(snapshotPath(directory, from));
+                    SnapshotOutput out = new SnapshotOutput(temporary)) {
+                in.readVisited(out::visited);
+                replayLogs(directory, from, to, false, new RecordVisitor() {
+                    @Override
+                    public void added(CrawlTask task) {
+                        out.visited(UrlFingerprint.of(task.url));
+                    }
+
+                    @Override
+                    public void completed(long fingerprint) {
+                        completed.add(fingerprint);
+                    }
+                });
+                Consumer<CrawlTask> pending = task -> {
+                    if (!completed.contains(UrlFingerprint.of(task.url))) {
+                        out.queued(task);
+                    }
+                };
+                in.readQueued(pending);
+                replayLogs(directory, from, to, false, new RecordVisitor() {
+                    @Override
+                    public void added(CrawlTask task) {
+                        pending.accept(task);
+                    }
+
+                    @Override
+                    public void completed(long fingerprint) {
+                    }
+                });
+            }
+            Files.move(temporary, snapshotPath(directory, to), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            snapshotId = to;
+            deleteBefore(directory, to);
+        }
+
+        private void fail(IOException e) {
+            synchronized (this) {
+                if (failure != null) {
+                    return;
+                }
+                failure = e;
+                buffer.clear();
+                notifyAll();
+            }
+            onFailure.accept(e);
+        }
+
+        private Path logPath(long id) {
+            return directory.resolve(String.format("log-%06d.wal", id));
+        }
+
+        private static Path snapshotPath(Path directory, long id) {
+            return directory.resolve(String.format("snapshot-%06d.snap", id));
+        }
+
+        private static void writeSnapshot(Path directory, long id, Consumer<LongConsumer> visited)
+                throws IOException {
+            Path temporary = directory.resolve(String.format("snapshot-%06d.snap.tmp", id));
+            try (SnapshotOutput out = new SnapshotOutput(temporary)) {
+                visited.accept(out::visited);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.move(temporary, snapshotPath(directory, id), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /**
+         * Replays logs {@code from} (inclusive) to {@code to} (exclusive) until the first bad
+         * record and returns the id of the last log it read, or {@code from - 1} if there was
+         * none. With {@code repair}, the bad record and everything after it is cut off: the log
+         * it is in is truncated before it and later logs are deleted.
+         */
+        private static long replayLogs(Path directory, long from, long to, boolean repair, RecordVisitor visitor)
+                throws IOException {
+            List<Long> ids = new ArrayList<>();
+            for (Path file : journalFiles(directory)) {
+                long id = fileId(file);
+                if (file.getFileName().toString().endsWith(".wal") && id >= from && id < to) {
+                    ids.add(id);
+                }
+            }
+            Collections.sort(ids);
+            CRC32C crc = new CRC32C();
+            byte[] payload = new byte[256];
+            long last = from - 1;
+            for (long id : ids) {
+                Path file = directory.resolve(String.format("log-%06d.wal", id));
+                long valid = 0;
+                boolean bad = false;
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file),
+                        1 << 16))) {
+                    while (!bad) {
+                        int length;
+                        int expected;
+                        try {
+                            length = in.readInt();
+                            expected = in.readInt();
+                            if (length <= 0 || length > MAX_RECORD_BYTES) {
+                                bad = true;
+                                break;
+                            }
+                            if (payload.length < length) {
+                                payload = new byte[Math.max(length, payload.length * 2)];
+                            }
+                            in.readFully(payload, 0, length);
+                        } catch (EOFException e) {
+                            break; // end of this log, possibly mid-record
+                        }
+                        crc.reset();
+                        crc.update(payload, 0, length);
+                        if ((int) crc.getValue() != expected) {
+                            bad = true;
+                            break;
+                        }
+                        ByteBuffer record = ByteBuffer.wrap(payload, 0, length);
+                        byte type = record.get();
+                        if (type == ADDED) {
+                            int depth = record.getInt();
+                            String url = new String(payload, record.position(), record.remaining(), StandardCharsets.UTF_8);
+                            visitor.added(new CrawlTask(url, depth));
+                        } else if (type == COMPLETED) {
+                            visitor.completed(record.getLong());
+                        } else {
+                            bad = true;
+                            break;
+                        }
+                        valid += RECORD_HEADER_BYTES + length;
+                    }
+                }
+                last = id;
+                if (repair && Files.size(file) > valid) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(valid);
+                        channel.force(true);
+                    }
+                }
+                if (bad) {
+                    if (repair) {
+                        for (long later : ids) {
+                            if (later > id) {
+                                Files.deleteIfExists(directory.resolve(String.format("log-%06d.wal", later)));
+                            }
+                        }
+                    }
+                    break;
+                }
+            }
+            return last;
+        }
+
+        private static List<Path> journalFiles(Path directory) throws IOException {
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "{snapshot-*.snap,log-*.wal}")) {
+                for (Path file : stream) {
+                    files.add(file);
+                }
+            }
+            return files;
+        }
+
+        /** The number in {@code snapshot-N.snap} or {@code log-N.wal}. */
+        private static long fileId(Path file) {
+            String name = file.getFileName().toString();
+            return Long.parseLong(name.substring(name.indexOf('-') + 1, name.indexOf('.')));
+        }
+
+        private static void deleteBefore(Path directory, long id) throws IOException {
+            for (Path file : journalFiles(directory)) {
+                if (fileId(file) < id) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "snapshot-*.snap.tmp")) {
+                for (Path file : stream) {
+                    if (fileId(file) < id) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+
+        /** Reads a snapshot section by section: first the visited fingerprints, then the queue. */
+        private static final class SnapshotInput implements Closeable {
+            private final Path file;
+            private final DataInputStream in;
+            private final long visitedCount;
+            private final long queuedCount;
+
+            SnapshotInput(Path file) throws IOException {
+                this.file = file;
+                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+                try {
+                    if (in.readLong() != SNAPSHOT_MAGIC) {
+                        throw new IOException(file + " is not a journal snapshot");
+                    }
+                    visitedCount = in.readLong();
+                    queuedCount = in.readLong();
+                } catch (IOException e) {
+                    in.close();
+                    throw e;
+                }
+            }
+
+            void readVisited(LongConsumer visited) throws IOException {
+                for (long i = 0; i < visitedCount; i++) {
+                    visited.accept(in.readLong());
+                }
+            }
+
+            void readQueued(Consumer<CrawlTask> queued) throws IOException {
+                for (long i = 0; i < queuedCount; i++) {
+                    int depth = in.readInt();
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_BYTES) {
+                        throw new IOException(file + " has a corrupt queued task");
+                    }
+                    byte[] url = new byte[length];
+                    in.readFully(url);
+                    queued.accept(new CrawlTask(new String(url, StandardCharsets.UTF_8), depth));
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        }
+
+        /**
+         * Streams a snapshot to {@code file}; the counts in the header are filled in on close,
+         * after which the file is forced to disk.
+         */
+        private static final class SnapshotOutput implements Closeable {
+            private final FileChannel channel;
+            private final DataOutputStream out;
+            private long visitedCount;
+            private long queuedCount;
+            private boolean writingQueued;
+
+            SnapshotOutput(Path file) throws IOException {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE);
+                out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+                out.writeLong(SNAPSHOT_MAGIC);
+                out.writeLong(0);
+                out.writeLong(0);
+            }
+
+            void visited(long fingerprint) {
+                if (writingQueued) {
+                    throw new IllegalStateException("visited fingerprints must precede queued tasks");
+                }
+                try {
+                    out.writeLong(fingerprint);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                visitedCount++;
+            }
+
+            void queued(CrawlTask task) {
+                writingQueued = true;
+                byte[] url = task.url.getBytes(StandardCharsets.UTF_8);
+                try {
+                    out.writeInt(task.depth);
+                    out.writeInt(url.length);
+                    out.write(url);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                queuedCount++;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    out.flush();
+                    ByteBuffer counts = ByteBuffer.allocate(2 * Long.BYTES).putLong(visitedCount).putLong(queuedCount);
+                    channel.write(counts.flip(), Long.BYTES);
+                    channel.force(true);
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Append-only, content-addressed store for page bodies. Each distinct body is deflated and
+     * appended once as a record to the current segment file, which is rolled over after
+     * {@code segmentBytes}; a body whose SHA-256 was already stored maps to the existing record.
+     * The store indexes pages by URL fingerprint itself, in two open-addressing tables of
+     * primitive longs (URL to record, content hash to record), so the heap grows by a few dozen
+     * bytes per page rather than with the bytes crawled. Every page also appends one entry to
+     * {@code pages.idx}, from which the tables are rebuilt when the store is reopened, so pages
+     * kept by a resumed crawl stay readable. Appends reserve their range under a short lock and
+     * write outside it, so workers store pages concurrently.
+     *
+     * <p>Record layout: magic (int), deflated length (int), raw length (int), SHA-256 of the raw
+     * body (32 bytes), deflated body. Index entry: URL fingerprint (long), content hash (long),
+     * record location as segment number {@code << 40 | offset} (long).
+     */
+    private static class PageStore implements Closeable {
+        private static final int RECORD_MAGIC = 0x50414745; // "PAGE"
+        private static final int DIGEST_BYTES = 32;
+        private static final int RECORD_HEADER_BYTES = 3 * Integer.BYTES + DIGEST_BYTES;
+        private static final int INDEX_ENTRY_BYTES = 3 * Long.BYTES;
+        private static final int OFFSET_BITS = 40;
+        private static final String INDEX_FILE = "pages.idx";
+
+        private final Path directory;
+        private final long segmentBytes;
+        private final List<FileChannel> segments = new ArrayList<>();
+        private final LongLongMap byUrl = new LongLongMap();
+        private final LongLongMap byContentHash = new LongLongMap();
+        private FileChannel index;
+        private long indexPosition;
+        private int firstSegmentId;
+        private long writePosition;
+
+        /**
+         * Opens a store in {@code directory}, loading the index of the pages already in it; new
+         * records go to segments after any existing ones.
+         */
+        PageStore(Path directory, long segmentBytes) throws IOException {
+            if (segmentBytes > 1L << OFFSET_BITS) {
+                throw new IllegalArgumentException("Segments are limited to " + (1L << OFFSET_BITS) + " bytes");
+            }
+            this.directory = directory;
+            this.segmentBytes = segmentBytes;
+            Files.createDirectories(directory);
+            firstSegmentId = nextFreeSegmentId();
+            openIndex();
+        }
+
+        /** Stores the body of the page at {@code url}, or points {@code url} at an identical stored body. */
+        void store(String url, byte[] body) throws IOException {
+            byte[] digest = sha256(body);
+            long contentHash = ByteBuffer.wrap(digest).getLong();
+            long urlFingerprint = UrlFingerprint.of(url);
+            byte[] deflated = deflate(body);
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + deflated.length);
+            record.putInt(RECORD_MAGIC).putInt(deflated.length).putInt(body.length).put(digest).put(deflated).flip();
+
+            long location;
+            boolean stored;
+            FileChannel channel = null;
+            long entryPosition;
+            synchronized (this) {
+                location = byContentHash.get(contentHash);
+                stored = location != LongLongMap.MISSING;
+                if (!stored) {
+                    if (segments.isEmpty() || writePosition + record.remaining() > segmentBytes) {
+                        openNextSegment();
+                    }
+                    int segment = firstSegmentId + segments.size() - 1;
+                    location = (long) segment << OFFSET_BITS | writePosition;
+                    channel = segments.get(segments.size() - 1);
+                    writePosition += record.remaining();
+                    byContentHash.put(contentHash, location);
+                }
+                byUrl.put(urlFingerprint, location);
+                entryPosition = indexPosition;
+                indexPosition += INDEX_ENTRY_BYTES;
+            }
+            if (!stored) {
+                writeFully(channel, record, location & (1L << OFFSET_BITS) - 1);
+            }
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES).putLong(urlFingerprint).putLong(contentHash)
+                    .putLong(location).flip();
+            writeFully(index, entry, entryPosition);
+        }
+
+        /** Reads back and inflates the body stored for {@code url}, or returns {@code null} if there is none. */
+        byte[] read(String url) throws IOException {
+            long location;
+            synchronized (this) {
+                location = byUrl.get(UrlFingerprint.of(url));
+            }
+            if (location == LongLongMap.MISSING) {
+                return null;
+            }
+            int segment = (int) (location >>> OFFSET_BITS);
+            long offset = location & (1L << OFFSET_BITS) - 1;
+            try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+                ByteBuffer header = readFully(channel, RECORD_HEADER_BYTES, offset, segment);
+                if (header.getInt() != RECORD_MAGIC) {
+                    throw new IOException("No page record at segment " + segment + " offset " + offset);
+                }
+                int deflatedLength = header.getInt();
+                byte[] body = new byte[header.getInt()];
+                ByteBuffer deflated = readFully(channel, deflatedLength, offset + RECORD_HEADER_BYTES, segment);
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(deflated.array(), 0, deflatedLength);
+                    int length = 0;
+                    while (length < body.length && !inflater.finished()) {
+                        int inflated = inflater.inflate(body, length, body.length - length);
+                        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new EOFException("Truncated page record in segment " + segment);
+                        }
+                        length += inflated;
+                    }
+                    if (length != body.length) {
+                        throw new IOException("Page record in segment " + segment + " inflates to " + length
+                                + " bytes instead of " + body.length);
+                    }
+                    return body;
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt page record in segment " + segment, e);
+                } finally {
+                    inflater.end();
+                }
+            }
+        }
+
+        /** Number of URLs with a stored body. */
+        synchronized long size() {
+            return byUrl.size();
+        }
+
+        /** Deletes every segment and the index, including those left by earlier crawls. */
+        synchronized void clear() throws IOException {
+            closeSegments();
+            index.close();
+            byUrl.clear();
+            byContentHash.clear();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "pages-*.dat")) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(directory.resolve(INDEX_FILE));
+            firstSegmentId = 0;
+            openIndex();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            for (FileChannel channel : segments) {
+                channel.force(false);
+            }
+            closeSegments();
+            index.force(false);
+            index.close();
+        }
+
+        /**
+         * Opens the index and loads its entries. A torn entry at the end, left by a crash, is cut
+         * off; entries whose record never reached its segment, or that were reserved but never
+         * written, are skipped.
+         */
+        private void openIndex() throws IOException {
+            index = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            indexPosition = index.size() / INDEX_ENTRY_BYTES * INDEX_ENTRY_BYTES;
+            if (index.size() != indexPosition) {
+                index.truncate(indexPosition);
+            }
+            Map<Integer, Long> segmentSizes = new HashMap<>();
+            ByteBuffer batch = ByteBuffer.allocate(INDEX_ENTRY_BYTES * 4096);
+            long position = 0;
+            while (position < indexPosition) {
+                batch.clear().limit((int) Math.min(batch.capacity(), indexPosition - position));
+                while (batch.hasRemaining()) {
+                    position += index.read(batch, position);
+                }
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    long urlFingerprint = batch.getLong();
+                    long contentHash = batch.getLong();
+                    long location = batch.getLong();
+                    int segment = (int) (location >>> OFFSET_BITS);
+                    long segmentSize = segmentSizes.computeIfAbsent(segment, this::segmentSize);
+                    boolean written = urlFingerprint != 0 || contentHash != 0;
+                    if (written && (location & (1L << OFFSET_BITS) - 1) + RECORD_HEADER_BYTES <= segmentSize) {
+                        byUrl.put(urlFingerprint, location);
+                        byContentHash.put(contentHash, location);
+                    }
+                }
+            }
+        }
+
+        private long segmentSize(int segment) {
+            try {
+                return Files.size(segmentPath(segment));
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        private Path segmentPath(int segment) {
+            return directory.resolve(String.format("pages-%06d.dat", segment));
+        }
+
+        private void openNextSegment() throws IOException {
+            segments.add(FileChannel.open(segmentPath(firstSegmentId + segments.size()), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+            writePosition = 0;
+        }
+
+        private void closeSegments() throws IOException {
+            for (FileChannel channel : segments) {
+                channel.close();
+            }
+            firstSegmentId += segments.size();
+            segments.clear();
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+
+        private static ByteBuffer readFully(FileChannel channel, int length, long position, int segment)
+                throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("Truncated record in segment " + segment);
+                }
+                position += read;
+            }
+            return buffer.flip();
+        }
+
+        private int nextFreeSegmentId() throws IOException {
+            int next = 0;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "pages-*.dat")) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    next = Math.max(next, Integer.parseInt(name.substring(6, name.length() - 4)) + 1);
+                }
+            }
+            return next;
+        }
+
+        private static byte[] deflate(byte[] body) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(body);
+                deflater.finish();
+                byte[] out = new byte[Math.max(64, body.length / 2)];
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == out.length) {
+                        out = Arrays.copyOf(out, out.length * 2);
+                    }
+                    length += deflater.deflate(out, length, out.length - length);
+                }
+                return Arrays.copyOf(out, length);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private static byte[] sha256(byte[] body) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(body);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is required on every Java platform", e);
+            }
+        }
+
+        /**
+         * Map from {@code long} to non-negative {@code long} in two flat arrays, open addressing
+         * with linear probing and 0 marking an empty key; about a third of the heap of a
+         * {@code HashMap<Long, Long>}. Not thread-safe.
+         */
+        private static final class LongLongMap {
+            static final long MISSING = -1;
+            private static final long ZERO_SUBSTITUTE = 0x9e3779b97f4a7c15L;
+
+            private long[] keys = new long[1024];
+            private long[] values = new long[1024];
+            private int size;
+
+            long get(long key) {
+                key = key == 0 ? ZERO_SUBSTITUTE : key;
+                int mask = keys.length - 1;
+                for (int i = mix(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                    if (keys[i] == key) {
+                        return values[i];
+                    }
+                }
+                return MISSING;
+            }
+
+            void put(long key, long value) {
+                key = key == 0 ? ZERO_SUBSTITUTE : key;
+                int mask = keys.length - 1;
+                int i = mix(key) & mask;
+                while (keys[i] != 0 && keys[i] != key) {
+                    i = (i + 1) & mask;
+                }
+                if (keys[i] == 0) {
+                    keys[i] = key;
+                    if (++size > keys.length * 3 / 4) {
+                        values[i] = value;
+                        grow();
+                        return;
+                    }
+                }
+                values[i] = value;
+            }
+
+            int size() {
+                return size;
+            }
+
+            void clear() {
+                keys = new long[1024];
+                values = new long[1024];
+                size = 0;
+            }
+
+            private void grow() {
+                long[] oldKeys = keys;
+                long[] oldValues = values;
+                keys = new long[oldKeys.length * 2];
+                values = new long[oldValues.length * 2];
+                int mask = keys.length - 1;
+                for (int j = 0; j < oldKeys.length; j++) {
+                    if (oldKeys[j] != 0) {
+                        int i = mix(oldKeys[j]) & mask;
+                        while (keys[i] != 0) {
+                            i = (i + 1) & mask;
+                        }
+                        keys[i] = oldKeys[j];
+                        values[i] = oldValues[j];
+                    }
+                }
+            }
+
+            private static int mix(long key) {
+                key *= 0x9e3779b97f4a7c15L;
+                return (int) (key ^ key >>> 32);
+            }
+        }
+    }
+
+    /**
+     * Streaming WARC/1.1 writer. Each fetched page becomes a {@code response} record whose block
+     * is the HTTP status line, headers and body; every file starts with a {@code warcinfo}
+     * record and is rolled over once it reaches {@code maxFileBytes}. Records are gzipped one
+     * member per record, so files stay readable by standard tools and can be indexed by offset.
+     * Callers build and compress records on their own threads; a dedicated writer thread drains
+     * them in batches and appends each batch with one gathering {@link FileChannel} write.
+     * {@link #write} blocks when the writer falls behind, so the archive never drops pages.
+     */
+    private static class WarcWriter implements Closeable {
+        private static final int QUEUE_CAPACITY = 1024;
+        private static final int MAX_BATCH = 256;
+        private static final ByteBuffer END_OF_QUEUE = ByteBuffer.allocate(0);
+        private static final DateTimeFormatter FILE_TIMESTAMP =
+                DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneOffset.UTC);
+
+        private final Path directory;
+        private final long maxFileBytes;
+        private final String filePrefix;
+        private final BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Thread writerThread;
+        private volatile IOException failure;
+        private FileChannel file;
+        private long fileBytes;
+        private int fileRecords;
+        private int fileSequence;
+
+        WarcWriter(Path directory, long maxFileBytes) throws IOException {
+            this.directory = directory;
+            this.maxFileBytes = maxFileBytes;
+            this.filePrefix = "crawl-" + FILE_TIMESTAMP.format(Instant.now()) + "-";
+            Files.createDirectories(directory);
+            openNextFile();
+            writerThread = new Thread(this::drain, "warc-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+
+        /** Queues a response record for {@code page}. */
+        void write(PageInfo page) throws IOException, InterruptedException {
+            if (failure != null) {
+                throw failure;
+            }
+            queue.put(ByteBuffer.wrap(gzip(responseRecord(page))));
+        }
+
+        /** Writes out everything queued so far, then closes the current file. */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (writerThread.isAlive()) {
+                    queue.put(END_OF_QUEUE);
+                }
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void drain() {
+            List<ByteBuffer> batch = new ArrayList<>(MAX_BATCH);
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    boolean done = batch.remove(END_OF_QUEUE);
+                    writeBatch(batch);
+                    batch.clear();
+                    if (done) {
+                        break;
+                    }
+                }
+                file.force(false);
+                file.close();
+            } catch (IOException e) {
+                failure = e;
+                discardUntilClosed();
+            } catch (InterruptedException e) {
+                failure = new InterruptedIOException("WARC writer interrupted");
+            }
+        }
+
+        /** Keeps the queue moving after a write error so callers never block on a dead writer. */
+        private void discardUntilClosed() {
+            try {
+                while (queue.take() != END_OF_QUEUE) {
+                    // dropped; write() reports the failure to the next caller
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void writeBatch(List<ByteBuffer> batch) throws IOException {
+            int start = 0;
+            long batchBytes = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                long recordBytes = batch.get(i).remaining();
+                if (fileBytes + batchBytes + recordBytes > maxFileBytes && fileRecords + i - start > 0) {
+                    writeFully(batch.subList(start, i));
+                    openNextFile();
+                    start = i;
+                    batchBytes = 0;
+                }
+                batchBytes += recordBytes;
+            }
+            writeFully(batch.subList(start, batch.size()));
+            fileRecords += batch.size() - start;
+        }
+
+        private void writeFully(List<ByteBuffer> records) throws IOException {
+            ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            fileBytes += remaining;
+            while (remaining > 0) {
+                remaining -= file.write(buffers);
+            }
+        }
+
+        private void openNextFile() throws IOException {
+            if (file != null) {
+                file.force(false);
+                file.close();
+            }
+            String name = String.format("%s%05d.warc.gz", filePrefix, fileSequence++);
+            file = FileChannel.open(directory.resolve(name), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            fileBytes = 0;
+            fileRecords = 0;
+            writeFully(List.of(ByteBuffer.wrap(gzip(warcinfoRecord(name)))));
+        }
+
+        private static byte[] warcinfoRecord(String fileName) {
+            byte[] fields = ("software: AdvancedWebCrawlerGUI\r\n"
+                    + "format: WARC File Format 1.1\r\n").getBytes(StandardCharsets.UTF_8);
+            String header = "WARC/1.1\r\n"
+                    + "WARC-Type: warcinfo\r\n"
+                    + "WARC-Record-ID: <urn:uuid:" + UUID.randomUUID() + ">\r\n"
+                    + "WARC-Date: " + Instant.now().truncatedTo(ChronoUnit.SECONDS) + "\r\n"
+                    + "WARC-Filename: " + fileName + "\r\n"
+                    + "Content-Type: application/warc-fields\r\n"
+                    + "Content-Length: " + fields.length + "\r\n\r\n";
+            return record(header, fields);
+        }
+
+        /**
+         * The HTTP block is rebuilt from the decoded response: HttpClient has already undone any
+         * chunking, so Transfer-Encoding is dropped and Content-Length set to the body length.
+         */
+        private static byte[] responseRecord(PageInfo page) {
+            StringBuilder http = new StringBuilder(512)
+                    .append("HTTP/1.1 ").append(page.statusCode).append(page.statusCode == 200 ? " OK" : "").append("\r\n");
+            page.headers.map().forEach((name, values) -> {
+                if (name.startsWith(":") || name.equalsIgnoreCase("transfer-encoding")
+                        || name.equalsIgnoreCase("content-length")) {
+                    return;
+                }
+                for (String value : values) {
+                    http.append(name).append(": ").append(value).append("\r\n");
+                }
+            });
+            http.append("content-length: ").append(page.content.length).append("\r\n\r\n");
+            byte[] httpHead = http.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+            byte[] block = Arrays.copyOf(httpHead, httpHead.length + page.content.length);
+            System.arraycopy(page.content, 0, block, httpHead.length, page.content.length);
+
+            String header = "WARC/1.1\r\n"
+                    + "WARC-Type: response\r\n"
+                    + "WARC-Record-ID: <urn:uuid:" + UUID.randomUUID() + ">\r\n"
+                    + "WARC-Date: " + page.fetchedAt.truncatedTo(ChronoUnit.SECONDS) + "\r\n"
+                    + "WARC-Target-URI: " + page.url + "\r\n"
+                    + "WARC-Payload-Digest: sha1:" + base32(sha1(page.content)) + "\r\n"
+                    + "Content-Type: application/http;msgtype=response\r\n"
+                    + "Content-Length: " + block.length + "\r\n\r\n";
+            return record(header, block);
+        }
+
+        private static byte[] record(String header, byte[] block) {
+            byte[] head = header.getBytes(StandardCharsets.UTF_8);
+            byte[] record = new byte[head.length + block.length + 4];
+            System.arraycopy(head, 0, record, 0, head.length);
+            System.arraycopy(block, 0, record, head.length, block.length);
+            record[record.length - 4] = '\r';
+            record[record.length - 3] = '\n';
+            record[record.length - 2] = '\r';
+            record[record.length - 1] = '\n';
+            return record;
+        }
+
+        private static byte[] gzip(byte[] record) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(record.length / 3 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed, 8192)) {
+                out.write(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // in-memory streams do not fail
+            }
+            return compressed.toByteArray();
+        }
+
+        private static byte[] sha1(byte[] content) {
+            try {
+                return MessageDigest.getInstance("SHA-1").digest(content);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 is required on every Java platform", e);
+            }
+        }
+
+        private static String base32(byte[] bytes) {
+            String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+            StringBuilder out = new StringBuilder((bytes.length * 8 + 4) / 5);
+            int buffer = 0;
+            int bits = 0;
+            for (byte b : bytes) {
+                buffer = (buffer << 8) | (b & 0xff);
+                bits += 8;
+                while (bits >= 5) {
+                    out.append(alphabet.charAt((buffer >>> (bits - 5)) & 31));
+                    bits -= 5;
+                }
+            }
+            if (bits > 0) {
+                out.append(alphabet.charAt((buffer << (5 - bits)) & 31));
+            }
+            return out.toString();
+        }
+    }
+
+    /** Where {@link CrawlerWorker} gets pages from: the network, or a recorded crawl. */
+    private interface PageSource {
+        /**
+         * Starts fetching {@code url}. The future completes with the response, which has no body
+         * or links unless its status is 200, or {@code null} if there is none to give, and
+         * exceptionally on I/O errors or malformed URLs.
+         */
+        CompletableFuture<PageInfo> fetch(String url);
+
+        /** Fetches {@code url} on the calling thread; the result is as for {@link #fetch}. */
+        PageInfo fetchBlocking(String url) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Serves pages from recorded WARC files instead of the network, so a crawl can be re-run
+     * deterministically at CPU speed. Every {@code *.warc.gz} file in the directory is
+     * memory-mapped and its response records indexed by URL fingerprint once, at open; a fetch
+     * inflates just the one gzip member holding the response and scans it for links exactly as
+     * a live fetch would. URLs that were not recorded come back as {@code null}, recorded non-200
+     * responses with their status and no body, and a malformed record fails the fetch with an
+     * {@link IOException}. Files must be under 2 GB,
+     * as {@link WarcWriter} keeps them by default.
+     */
+    private static class WarcReplaySource implements PageSource {
+        private static final int HEADER_SCAN_BYTES = 16 * 1024;
+        private static final int GZIP_FEXTRA = 4;
+        private static final int GZIP_FNAME = 8;
+        private static final int GZIP_FCOMMENT = 16;
+        private static final int GZIP_FHCRC = 2;
+
+        private final List<ByteBuffer> files;
+        /** URL fingerprint to (file index << 48 | member offset). */
+        private final Map<Long, Long> index;
+
+        private WarcReplaySource(List<ByteBuffer> files, Map<Long, Long> index) {
+            this.files = files;
+            this.index = index;
+        }
+
+        static WarcReplaySource open(Path directory) throws IOException {
+            List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> warcs = Files.newDirectoryStream(directory, "*.warc.gz")) {
+                warcs.forEach(paths::add);
+            }
+            Collections.sort(paths);
+            if (paths.isEmpty()) {
+                throw new FileNotFoundException("No .warc.gz files in " + directory);
+            }
+            List<ByteBuffer> files = new ArrayList<>();
+            Map<Long, Long> index = new HashMap<>();
+            for (Path path : paths) {
+                ByteBuffer file;
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    if (channel.size() > Integer.MAX_VALUE) {
+                        throw new IOException(path + " is larger than 2 GB; split it into smaller WARC files");
+                    }
+                    file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                indexFile(files.size(), file, index);
+                files.add(file);
+            }
+            return new WarcReplaySource(files, index);
+        }
+
+        int size() {
+            return index.size();
+        }
+
+        Collection<Long> locations() {
+            return index.values();
+        }
+
+        @Override
+        public CompletableFuture<PageInfo> fetch(String url) {
+            try {
+                return CompletableFuture.completedFuture(fetchBlocking(url));
+            } catch (IOException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public PageInfo fetchBlocking(String url) throws IOException {
+            Long location = index.get(UrlFingerprint.of(url));
+            return location == null ? null : read(location);
+        }
+
+        /** Inflates and parses the response record at {@code location}. */
+        PageInfo read(long location) throws IOException {
+            ByteBuffer file = files.get((int) (location >>> 48));
+            int offset = (int) (location & 0xffff_ffff_ffffL);
+            try {
+                return parseResponse(inflateMember(file, offset, Integer.MAX_VALUE).record);
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed WARC record at offset " + offset + ": " + e, e);
+            }
+        }
+
+        private static PageInfo parseResponse(byte[] record) throws IOException {
+            int warcHeaderEnd = headerEnd(record, 0);
+            if (warcHeaderEnd < 0) {
+                throw new IOException("Malformed WARC header");
+            }
+            Map<String, String> warcHeaders = parseHeaders(record, 0, warcHeaderEnd);
+            String url = warcHeaders.get("warc-target-uri");
+            int blockLength = Integer.parseInt(warcHeaders.getOrDefault("content-length", "0"));
+            int blockEnd = Math.min(record.length, warcHeaderEnd + blockLength);
+
+            int httpHeaderEnd = headerEnd(record, warcHeaderEnd);
+            if (httpHeaderEnd < 0 || httpHeaderEnd > blockEnd) {
+                throw new IOException("Malformed HTTP block for " + url);
+            }
+            int statusLineEnd = indexOf(record, warcHeaderEnd, (byte) '\n');
+            String[] statusLine = new String(record, warcHeaderEnd, statusLineEnd - warcHeaderEnd,
+                    StandardCharsets.ISO_8859_1).trim().split(" ", 3);
+            int statusCode = Integer.parseInt(statusLine[1]);
+            Map<String, List<String>> httpHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            String[] lines = new String(record, statusLineEnd + 1, httpHeaderEnd - statusLineEnd - 1,
+                    StandardCharsets.ISO_8859_1).split("\r\n");
+            for (String line : lines) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    httpHeaders.computeIfAbsent(line.substring(0, colon).trim(), name -> new ArrayList<>())
+                            .add(line.substring(colon + 1).trim());
+                }
+            }
+            HttpHeaders headers = HttpHeaders.of(httpHeaders, (name, value) -> true);
+            Instant fetchedAt = Instant.parse(warcHeaders.getOrDefault("warc-date", Instant.EPOCH.toString()));
+            if (statusCode != 200) {
+                return new PageInfo(url, statusCode, headers, new byte[0], List.of(), fetchedAt);
+            }
+
+            ParseEvent parsed = new ParseEvent();
+            parsed.begin();
+            long scanStart = System.nanoTime();
+            LinkScanner scanner = new LinkScanner();
+            scanner.feed(record, httpHeaderEnd, blockEnd - httpHeaderEnd);
+            List<String> links = scanner.finish();
+            parsed.commit(url, blockEnd - httpHeaderEnd, links.size(), System.nanoTime() - scanStart);
+            byte[] body = Arrays.copyOfRange(record, httpHeaderEnd, blockEnd);
+            return new PageInfo(url, statusCode, headers, body, links, fetchedAt);
+        }
+
+        private static void indexFile(int fileIndex, ByteBuffer file, Map<Long, Long> index) throws IOException {
+            int offset = 0;
+            while (offset < file.limit()) {
+                Member member = inflateMember(file, offset, HEADER_SCAN_BYTES);
+                int headerEnd = headerEnd(member.record, 0);
+                if (headerEnd > 0) {
+                    Map<String, String> headers = parseHeaders(member.record, 0, headerEnd);
+                    String url = headers.get("warc-target-uri");
+                    if ("response".equals(headers.get("warc-type")) && url != null) {
+                        index.putIfAbsent(UrlFingerprint.of(url), ((long) fileIndex << 48) | offset);
+                    }
+                }
+                offset = member.end;
+            }
+        }
+
+        private static final class Member {
+            final byte[] record;
+            final int end;
+
+            Member(byte[] record, int end) {
+                this.record = record;
+                this.end = end;
+            }
+        }
+
+        /**
+         * Inflates the gzip member starting at {@code offset}, keeping at most {@code keepBytes} of
+         * its content, and returns it together with the offset just past the member.
+         */
+        private static Member inflateMember(ByteBuffer file, int offset, int keepBytes) throws IOException {
+            int position = offset;
+            if ((file.get(position) & 0xff) != 0x1f || (file.get(position + 1) & 0xff) != 0x8b
+                    || file.get(position + 2) != 8) {
+                throw new IOException("No gzip member at offset " + offset);
+            }
+            int flags = file.get(position + 3);
+            position += 10;
+            if ((flags & GZIP_FEXTRA) != 0) {
+                position += 2 + ((file.get(position) & 0xff) | (file.get(position + 1) & 0xff) << 8);
+            }
+            if ((flags & GZIP_FNAME) != 0) {
+                while (file.get(position++) != 0) {
+                    // skip the zero-terminated file name
+                }
+            }
+            if ((flags & GZIP_FCOMMENT) != 0) {
+                while (file.get(position++) != 0) {
+                    // skip the zero-terminated comment
+                }
+            }
+            if ((flags & GZIP_FHCRC) != 0) {
+                position += 2;
+            }
+
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(file.slice(position, file.limit() - position));
+                byte[] out = new byte[Math.min(keepBytes, 64 * 1024)];
+                byte[] discard = null;
+                int length = 0;
+                while (!inflater.finished()) {
+                    int inflated;
+                    if (length < keepBytes) {
+                        if (length == out.length) {
+                            out = Arrays.copyOf(out, (int) Math.min((long) out.length * 2, keepBytes));
+                        }
+                        inflated = inflater.inflate(out, length, out.length - length);
+                        length += inflated;
+                    } else {
+                        if (discard == null) {
+                            discard = new byte[64 * 1024];
+                        }
+                        inflated = inflater.inflate(discard);
+                    }
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new EOFException("Truncated gzip member at offset " + offset);
+                    }
+                }
+                int end = position + (int) inflater.getBytesRead() + 8; // CRC32 and ISIZE trailer
+                return new Member(length == out.length ? out : Arrays.copyOf(out, length), end);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt gzip member at offset " + offset, e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        /** Offset just past the blank line ending the header block that starts at {@code from}, or -1. */
+        private static int headerEnd(byte[] bytes, int from) {
+            for (int i = from; i + 3 < bytes.length; i++) {
+                if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                    return i + 4;
+                }
+            }
+            return -1;
+        }
+
+        private static int indexOf(byte[] bytes, int from, byte b) {
+            for (int i = from; i < bytes.length; i++) {
+                if (bytes[i] == b) {
+                    return i;
+                }
+            }
+            return bytes.length;
+        }
+
+        /** Parses "Name: value" lines (names lower-cased); the first line is the version line. */
+        private static Map<String, String> parseHeaders(byte[] bytes, int from, int to) {
+            Map<String, String> headers = new HashMap<>();
+            String[] lines = new String(bytes, from, to - from, StandardCharsets.UTF_8).split("\r\n");
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                            lines[i].substring(colon + 1).trim());
+                }
+            }
+            return headers;
+        }
+    }
+
+    /**
+     * Non-blocking page fetcher on top of {@link HttpClient}. Requests are multiplexed over
+     * HTTP/2 where the server supports it (falling back to HTTP/1.1 otherwise), so a handful of
+     * dispatcher threads can keep thousands of requests in flight. Completions, including link
+     * extraction, run on the executor passed in. {@link #fetchBlocking} serves the
+     * thread-per-request execution modes. Every request holds a {@link HostConnectionPool} lease
+     * for its host until the body has been read in full, and its phases are timed into
+     * {@link FetchTimings}.
+     */
+    private static class AsyncFetcher implements PageSource {
+        private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+        private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+        private final HttpClient client;
+        private final Executor executor;
+        private final HostConnectionPool connectionPool;
+        private final FetchTimings timings;
+        /** Hosts whose DNS phase has been timed; see {@link #resolve}. */
+        private final Set<String> resolvedHosts = ConcurrentHashMap.newKeySet();
+
+        AsyncFetcher(Executor executor, HostConnectionPool connectionPool, FetchTimings timings) {
+            this.executor = executor;
+            this.connectionPool = connectionPool;
+            this.timings = timings;
+            this.client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .connectTimeout(CONNECT_TIMEOUT)
+                    .executor(executor)
+                    .build();
+        }
+
+        @Override
+        public CompletableFuture<PageInfo> fetch(String url) {
+            HttpRequest request;
+            try {
+                request = newRequest(url);
+            } catch (IllegalArgumentException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            String host = request.uri().getHost();
+            return connectionPool.acquire(request.uri()).thenCompose(lease -> {
+                CompletableFuture<Void> resolved = lease.reused || !resolvedHosts.add(String.valueOf(host))
+                        ? CompletableFuture.completedFuture(null)
+                        : CompletableFuture.runAsync(() -> resolve(host), executor);
+                return resolved.thenCompose(ignored -> client.sendAsync(request, pageHandler(url, host, lease.reused)))
+                        .whenComplete((response, error) -> lease.release(error == null && keepsAlive(response)))
+                        .thenApply(HttpResponse::body);
+            });
+        }
+
+        @Override
+        public PageInfo fetchBlocking(String url) throws IOException, InterruptedException {
+            HttpRequest request = newRequest(url);
+            String host = request.uri().getHost();
+            HostConnectionPool.Lease lease = connectionPool.acquireBlocking(request.uri());
+            boolean reusable = false;
+            try {
+                if (!lease.reused && resolvedHosts.add(String.valueOf(host))) {
+                    resolve(host);
+                }
+                HttpResponse<PageInfo> response = client.send(request, pageHandler(url, host, lease.reused));
+                reusable = keepsAlive(response);
+                return response.body();
+            } finally {
+                lease.release(reusable);
+            }
+        }
+
+        /** {@code false} if the server announced it closes the connection after this response. */
+        private static boolean keepsAlive(HttpResponse<?> response) {
+            for (String value : response.headers().allValues("connection")) {
+                for (String token : value.split(",")) {
+                    if (token.trim().equalsIgnoreCase("close")) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Looks up {@code host} ahead of its first request, purely to time the DNS phase: the JDK
+         * caches the answer, so the client's own lookup right after is a cache hit. Later requests
+         * skip this, since timing a cache hit measures nothing and costs a blocking hop. Failures
+         * are left for the request itself to report.
+         */
+        private void resolve(String host) {
+            if (host == null) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                InetAddress.getAllByName(host);
+            } catch (UnknownHostException e) {
+                // the request fails with the same cause
+            }
+            timings.record(host, FetchTimings.Phase.DNS, System.nanoTime() - start);
+        }
+
+        private static HttpRequest newRequest(String url) {
+            return HttpRequest.newBuilder(URI.create(url))
+                    .timeout(REQUEST_TIMEOUT)
+                    .GET()
+                    .build();
+        }
+
+        /**
+         * Scans 200 responses for links while the body streams in; for any other status the body
+         * is drained and discarded, so the connection stays reusable, and only the status is kept.
+         * The time from here to the response headers is recorded as {@code TTFB} on a reused
+         * connection and {@code CONNECT} on a new one.
+         */
+        private HttpResponse.BodyHandler<PageInfo> pageHandler(String url, String host, boolean reused) {
+            long sentNanos = System.nanoTime();
+            return responseInfo -> {
+                long headersNanos = System.nanoTime();
+                timings.record(host, reused ? FetchTimings.Phase.TTFB : FetchTimings.Phase.CONNECT,
+                        headersNanos - sentNanos);
+                if (responseInfo.statusCode() != 200) {
+                    return HttpResponse.BodySubscribers.replacing(new PageInfo(url, responseInfo.statusCode(),
+                            responseInfo.headers(), new byte[0], List.of(), Instant.now()));
+                }
+                return new LinkScanningSubscriber(url, responseInfo.statusCode(), responseInfo.headers(),
+                        timings, host, headersNanos);
+            };
+        }
+    }
+
+    /**
+     * Body subscriber that feeds every chunk to a {@link LinkScanner} as it arrives and keeps the
+     * raw bytes, completing with the finished {@link PageInfo} once the body ends.
+     */
+    private static class LinkScanningSubscriber implements HttpResponse.BodySubscriber<PageInfo> {
+        private static final int MAX_INITIAL_CAPACITY = 8 * 1024 * 1024;
+
+        private final String url;
+        private final int statusCode;
+        private final HttpHeaders headers;
+        private final FetchTimings timings;
+        private final String host;
+        private final long headersNanos;
+        private final Instant fetchedAt = Instant.now();
+        private final LinkScanner scanner = new LinkScanner();
+        private final CompletableFuture<PageInfo> result = new CompletableFuture<>();
+        private final ParseEvent parsed = new ParseEvent();
+        private final boolean timeScan = parsed.isEnabled();
+        private long scanNanos;
+        private byte[] content;
+        private int length;
+
+        /** Records the time from {@code headersNanos} to the end of the body as the {@code BODY} phase. */
+        LinkScanningSubscriber(String url, int statusCode, HttpHeaders headers, FetchTimings timings, String host,
+                long headersNanos) {
+            this.url = url;
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.timings = timings;
+            this.host = host;
+            this.headersNanos = headersNanos;
+            parsed.begin();
+            long contentLength = headers.firstValueAsLong("Content-Length").orElse(-1);
+            this.content = new byte[(int) Math.min(Math.max(contentLength, 8192), MAX_INITIAL_CAPACITY)];
+        }
+
+        @Override
+        public CompletionStage<PageInfo> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                int chunk = buffer.remaining();
+                if (length + chunk > content.length) {
+                    content = Arrays.copyOf(content, Math.max(content.length * 2, length + chunk));
+                }
+                buffer.get(content, length, chunk);
+                if (timeScan) {
+                    long start = System.nanoTime();
+                    scanner.feed(content, length, chunk);
+                    scanNanos += System.nanoTime() - start;
+                } else {
+                    scanner.feed(content, length, chunk);
+                }
+                length += chunk;
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            timings.record(host, FetchTimings.Phase.BODY, System.nanoTime() - headersNanos);
+            byte[] body = length == content.length ? content : Arrays.copyOf(content, length);
+            long start = System.nanoTime();
+            List<String> links = scanner.finish();
+            parsed.commit(url, length, links.size(), scanNanos + System.nanoTime() - start);
+            result.complete(new PageInfo(url, statusCode, headers, body, links, fetchedAt));
+        }
+    }
+
+    /**
+     * Single-pass, incremental HTML attribute scanner. Bytes can be fed in arbitrary chunks; the
+     * scanner keeps its position in the tag grammar between calls and collects absolute
+     * http(s) values of {@code href} and {@code src} attributes, matching attribute names and
+     * schemes case-insensitively and accepting double-quoted, single-quoted and unquoted values.
+     * Apart from the returned link strings it allocates nothing per byte.
+     */
+    private static class LinkScanner {
+        private static final int MAX_LINK_BYTES = 4096;
+
+        private static final int TEXT = 0;
+        private static final int TAG_START = 1;
+        private static final int TAG_NAME = 2;
+        private static final int MARKUP = 3;
+        private static final int BEFORE_ATTRIBUTE = 4;
+        private static final int ATTRIBUTE_NAME = 5;
+        private static final int AFTER_ATTRIBUTE_NAME = 6;
+        private static final int BEFORE_VALUE = 7;
+        private static final int DOUBLE_QUOTED_VALUE = 8;
+        private static final int SINGLE_QUOTED_VALUE = 9;
+        private static final int UNQUOTED_VALUE = 10;
+
+        private final List<String> links = new ArrayList<>();
+        private final byte[] name = new byte[4];
+        private byte[] value = new byte[256];
+        private int state = TEXT;
+        private int nameLength;
+        private int valueLength;
+        private boolean capturing;
+
+        void feed(byte[] bytes, int offset, int length) {
+            for (int i = offset, end = offset + length; i < end; i++) {
+                step(bytes[i]);
+            }
+        }
+
+        /** Returns the links found so far, flushing an unquoted value cut off by end of input. */
+        List<String> finish() {
+            if (state == UNQUOTED_VALUE) {
+                emit();
+                state = TEXT;
+            }
+            return links;
+        }
+
+        private void step(byte b) {
+            switch (state) {
+                case TEXT:
+                    if (b == '<') {
+                        state = TAG_START;
+                    }
+                    break;
+                case TAG_START:
+                    if (isLetter(b) || b == '/') {
+                        state = TAG_NAME;
+                    } else if (b == '!' || b == '?') {
+                        state = MARKUP;
+                    } else if (b != '<') {
+                        state = TEXT;
+                    }
+                    break;
+                case TAG_NAME:
+                    if (b == '>') {
+                        state = TEXT;
+                    } else if (isSpace(b) || b == '/') {
+                        state = BEFORE_ATTRIBUTE;
+                    }
+                    break;
+                case MARKUP:
+                    if (b == '>') {
+                        state = TEXT;
+                    }
+                    break;
+                case BEFORE_ATTRIBUTE:
+                    if (b == '>') {
+                        state = TEXT;
+                    } else if (!isSpace(b) && b != '/') {
+                        startAttributeName(b);
+                    }
+                    break;
+                case ATTRIBUTE_NAME:
+                    if (b == '=') {
+                        startValue();
+                    } else if (b == '>') {
+                        state = TEXT;
+                    } else if (isSpace(b)) {
+                        state = AFTER_ATTRIBUTE_NAME;
+                    } else if (b == '/') {
+                        state = BEFORE_ATTRIBUTE;
+                    } else {
+                        appendName(b);
+                    }
+                    break;
+                case AFTER_ATTRIBUTE_NAME:
+                    if (b == '=') {
+                        startValue();
+                    } else if (b == '>') {
+                        state = TEXT;
+                    } else if (b == '/') {
+                        state = BEFORE_ATTRIBUTE;
+                    } else if (!isSpace(b)) {
+                        startAttributeName(b);
+                    }
+                    break;
+                case BEFORE_VALUE:
+                    if (b == '"') {
+                        state = DOUBLE_QUOTED_VALUE;
+                    } else if (b == '\'') {
+                        state = SINGLE_QUOTED_VALUE;
+                    } else if (b == '>') {
+                        state = TEXT;
+                    } else if (!isSpace(b)) {
+                        state = UNQUOTED_VALUE;
+                        appendValue(b);
+                    }
+                    break;
+                case DOUBLE_QUOTED_VALUE:
+                    if (b == '"') {
+                        emit();
+                        state = BEFORE_ATTRIBUTE;
+                    } else {
+                        appendValue(b);
+                    }
+                    break;
+                case SINGLE_QUOTED_VALUE:
+                    if (b == '\'') {
+                        emit();
+                        state = BEFORE_ATTRIBUTE;
+                    } else {
+                        appendValue(b);
+                    }
+                    break;
+                default:
+                    if (b == '>') {
+                        emit();
+                        state = TEXT;
+                    } else if (isSpace(b)) {
+                        emit();
+                        state = BEFORE_ATTRIBUTE;
+                    } else {
+                        appendValue(b);
+                    }
+            }
+        }
+
+        private void startAttributeName(byte b) {
+            nameLength = 0;
+            appendName(b);
+            state = ATTRIBUTE_NAME;
+        }
+
+        private void appendName(byte b) {
+            if (nameLength < name.length) {
+                name[nameLength] = toLowerCase(b);
+            }
+            nameLength++;
+        }
+
+        private void startValue() {
+            capturing = (nameLength == 4 && name[0] == 'h' && name[1] == 'r' && name[2] == 'e' && name[3] == 'f')
+                    || (nameLength == 3 && name[0] == 's' && name[1] == 'r' && name[2] == 'c');
+            valueLength = 0;
+            state = BEFORE_VALUE;
+        }
+
+        private void appendValue(byte b) {
+            if (!capturing) {
+                return;
+            }
+            if (valueLength == value.length) {
+                if (value.length >= MAX_LINK_BYTES) {
+                    capturing = false;
+                    return;
+                }
+                value = Arrays.copyOf(value, value.length * 2);
+            }
+            value[valueLength++] = b;
+        }
+
+        private void emit() {
+            if (!capturing) {
+                return;
+            }
+            capturing = false;
+            int start = 0;
+            int end = valueLength;
+            while (start < end && isSpace(value[start])) {
+                start++;
+            }
+            while (end > start && isSpace(value[end - 1])) {
+                end--;
+            }
+            if (!hasHttpScheme(start, end)) {
+                return;
+            }
+            String link = new String(value, start, end - start, StandardCharsets.UTF_8);
+            links.add(link.indexOf('&') >= 0 ? link.replace("&amp;", "&") : link);
+        }
+
+        private boolean hasHttpScheme(int start, int end) {
+            int length = end - start;
+            if (length < 8 || toLowerCase(value[start]) != 'h' || toLowerCase(value[start + 1]) != 't'
+                    || toLowerCase(value[start + 2]) != 't' || toLowerCase(value[start + 3]) != 'p') {
+                return false;
+            }
+            int colon = toLowerCase(value[start + 4]) == 's' ? start + 5 : start + 4;
+            return colon + 3 <= end && value[colon] == ':' && value[colon + 1] == '/' && value[colon + 2] == '/';
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\n' || b == '\t' || b == '\r' || b == '\f';
+        }
+
+        private static boolean isLetter(byte b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+        }
+
+        private static byte toLowerCase(byte b) {
+            return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+        }
+    }
+
+    /**
+     * Per-host keep-alive pool. Each request leases a connection slot for its host
+     * (scheme, host and port) and returns it once the response body has been fully drained,
+     * so the underlying connection goes back to the HttpClient's keep-alive cache rather than
+     * being torn down. At most {@code maxPerHost} leases per host are out at a time; further
+     * requests wait for a slot. Up to {@code maxIdle} released connections per host are
+     * remembered as warm until {@code idleTimeout} elapses, which should match the JDK client's
+     * keep-alive timeout ({@link AdvancedWebCrawler#configureKeepAlive}). A lease that picks up a
+     * warm connection counts as warm, one that expects to open a new connection as cold. A
+     * lease released after an error or a {@code Connection: close} response leaves no warm
+     * connection behind.
+     *
+     * <p>The pool cannot see the client's sockets: HttpClient keeps its own keep-alive cache and
+     * multiplexes HTTP/2 streams over a single connection, so the warm and cold lease counts
+     * only estimate the client's connection reuse. Over HTTP/2 the first {@code maxPerHost}
+     * leases of a host all count as cold although the client opens one connection. Wherever
+     * they are shown they are labelled as leases, not connections.
+     */
+    private static class HostConnectionPool {
+        private final int maxPerHost;
+        private final int maxIdle;
+        private final long idleTimeoutNanos;
+        private final ConcurrentMap<String, HostSlots> hosts = new ConcurrentHashMap<>();
+        private final LongAdder warmLeases = new LongAdder();
+        private final LongAdder coldLeases = new LongAdder();
+        private final LongAdder expired = new LongAdder();
+
+        HostConnectionPool(int maxPerHost, int maxIdle, Duration idleTimeout) {
+            this.maxPerHost = maxPerHost;
+            this.maxIdle = maxIdle;
+            this.idleTimeoutNanos = idleTimeout.toNanos();
+        }
+
+        /** Leases a slot for the host of {@code uri}, completing once one is free. */
+        CompletableFuture<Lease> acquire(URI uri) {
+            return hosts.computeIfAbsent(hostKey(uri), key -> new HostSlots()).acquire();
+        }
+
+        Lease acquireBlocking(URI uri) throws IOException, InterruptedException {
+            CompletableFuture<Lease> pending = acquire(uri);
+            try {
+                return pending.get();
+            } catch (InterruptedException e) {
+                // Nobody will use the slot once it arrives; hand it straight back, with its
+                // warm connection if it came with one.
+                pending.thenAccept(lease -> lease.release(lease.reused));
+                throw e;
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        /** Lease counts and the reuse they suggest; an estimate, see the class comment. */
+        String stats() {
+            long warm = warmLeases.sum();
+            long total = warm + coldLeases.sum();
+            return String.format("%d warm / %d cold (est. %.1f%% reuse), %d expired idle, %d hosts",
+                    warm, total - warm, total == 0 ? 0.0 : 100.0 * warm / total, expired.sum(), hosts.size());
+        }
+
+        private static String hostKey(URI uri) {
+            String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort() != -1 ? uri.getPort() : scheme.equals("https") ? 443 : 80;
+            return scheme + "://" + String.valueOf(uri.getHost()).toLowerCase(Locale.ROOT) + ":" + port;
+        }
+
+        final class Lease {
+            private final HostSlots slots;
+            /** Whether the slot came with an idle connection, i.e. no connection setup is expected. */
+            final boolean reused;
+
+            private Lease(HostSlots slots, boolean reused) {
+                this.slots = slots;
+                this.reused = reused;
+            }
+
+            /**
+             * Returns the slot. Pass {@code reusable = false} when the exchange failed and the
+             * connection cannot be kept alive.
+             */
+            void release(boolean reusable) {
+                slots.release(reusable);
+            }
+        }
+
+        private final class HostSlots {
+            private final ArrayDeque<Long> idleSince = new ArrayDeque<>();
+            private final ArrayDeque<CompletableFuture<Lease>> waiters = new ArrayDeque<>();
+            private int leased;
+
+            CompletableFuture<Lease> acquire() {
+                boolean reused;
+                synchronized (this) {
+                    if (leased >= maxPerHost) {
+                        CompletableFuture<Lease> waiter = new CompletableFuture<>();
+                        waiters.add(waiter);
+                        return waiter;
+                    }
+                    leased++;
+                    evictExpired(System.nanoTime());
+                    reused = idleSince.pollLast() != null;
+                    if (reused) {
+                        warmLeases.increment();
+                    } else {
+                        coldLeases.increment();
+                    }
+                }
+                return CompletableFuture.completedFuture(new Lease(this, reused));
+            }
+
+            void release(boolean reusable) {
+                CompletableFuture<Lease> waiter;
+                synchronized (this) {
+                    waiter = waiters.poll();
+                    if (waiter == null) {
+                        leased--;
+                        if (reusable) {
+                            idleSince.addLast(System.nanoTime());
+                            if (idleSince.size() > maxIdle) {
+                                idleSince.pollFirst();
+                            }
+                        }
+                        return;
+                    }
+                    if (reusable) {
+                        warmLeases.increment();
+                    } else {
+                        coldLeases.increment();
+                    }
+                }
+                // Hand the slot straight to the next request for this host, outside the lock.
+                waiter.complete(new Lease(this, reusable));
+            }
+
+            private void evictExpired(long now) {
+                Long oldest;
+                while ((oldest = idleSince.peekFirst()) != null && now - oldest > idleTimeoutNanos) {
+                    idleSince.pollFirst();
+                    expired.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Set of URLs that have been claimed for fetching. {@link #claim} is a single atomic
+     * test-and-insert, so exactly one worker wins each URL. URLs are stored as their 64-bit
+     * {@link UrlFingerprint} in an {@link OffHeapLongSet}, about 11-21 bytes per URL outside the
+     * Java heap, so the set adds no GC pressure however large the crawl gets. A set opened on a
+     * directory is memory-mapped and survives restarts.
+     */
+    private static class VisitedSet implements Closeable {
+        private final OffHeapLongSet fingerprints;
+
+        /** Creates a set that lives only in memory. */
+        VisitedSet() {
+            this.fingerprints = OffHeapLongSet.inMemory();
+        }
+
+        /** Opens, or creates, a set persisted under {@code directory}. */
+        VisitedSet(Path directory) throws IOException {
+            this.fingerprints = OffHeapLongSet.open(directory);
+        }
+
+        /** Returns {@code true} if the caller is the first to claim {@code url}. */
+        boolean claim(String url) {
+            return fingerprints.add(UrlFingerprint.of(url));
+        }
+
+        /**
+         * Claims a batch of URLs at once. Element {@code i} of the result is {@code true} if the
+         * caller won {@code urls.get(i)}; a URL repeated within the batch is won at most once.
+         */
+        boolean[] claimAll(List<String> urls) {
+            long[] batch = new long[urls.size()];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = UrlFingerprint.of(urls.get(i));
+            }
+            boolean[] claimed = new boolean[batch.length];
+            fingerprints.addAll(batch, claimed);
+            return claimed;
+        }
+
+        /** Adds fingerprints recorded earlier, as when the set is rebuilt from a {@link CrawlJournal}. */
+        void addFingerprints(long[] batch) {
+            fingerprints.addAll(batch, new boolean[batch.length]);
+        }
+
+        /** Calls {@code action} with the fingerprint of every claimed URL. */
+        void forEachFingerprint(LongConsumer action) {
+            fingerprints.forEach(action);
+        }
+
+        long size() {
+            return fingerprints.size();
+        }
+
+        void clear() {
+            fingerprints.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            fingerprints.close();
+        }
+    }
+
+    /**
+     * 64-bit fingerprint of a URL's canonical form: scheme and host lower-cased, default port
+     * and fragment dropped, empty path normalized to "/". The canonical form is
+     * hashed piece by piece (FNV-1a over UTF-16 units, then the MurmurHash3 finalizer) without
+     * building the canonical string. With 64 bits the chance of any collision stays below a few
+     * percent up to a billion URLs.
+     */
+    private static final class UrlFingerprint {
+        private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        private UrlFingerprint() {
+        }
+
+        static long of(String url) {
+            int schemeEnd = url.indexOf("://");
+            if (schemeEnd <= 0) {
+                return finish(hash(FNV_OFFSET_BASIS, url, 0, url.length(), false));
+            }
+            int length = url.length();
+            int authorityStart = schemeEnd + 3;
+            int authorityEnd = authorityStart;
+            while (authorityEnd < length) {
+                char c = url.charAt(authorityEnd);
+                if (c == '/' || c == '?' || c == '#') {
+                    break;
+                }
+                authorityEnd++;
+            }
+            int fragment = url.indexOf('#', authorityEnd);
+            int end = fragment < 0 ? length : fragment;
+
+            int hostStart = url.lastIndexOf('@', authorityEnd - 1) + 1;
+            if (hostStart <= authorityStart) {
+                hostStart = authorityStart;
+            }
+            int hostEnd = authorityEnd;
+            int portStart = url.lastIndexOf(':', authorityEnd - 1);
+            if (portStart > hostStart && url.lastIndexOf(']', authorityEnd - 1) < portStart) {
+                boolean defaultPort = portStart + 1 == authorityEnd
+                        || (schemeEnd == 4 && url.regionMatches(portStart, ":80", 0, 3) && portStart + 3 == authorityEnd)
+                        || (schemeEnd == 5 && url.regionMatches(portStart, ":443", 0, 4) && portStart + 4 == authorityEnd);
+                if (defaultPort) {
+                    hostEnd = portStart;
+                }
+            }
+
+            long h = hash(FNV_OFFSET_BASIS, url, 0, authorityStart, true);
+            h = hash(h, url, authorityStart, hostStart, false);
+            h = hash(h, url, hostStart, hostEnd, true);
+            if (authorityEnd == end || url.charAt(authorityEnd) != '/') {
+                h = (h ^ '/') * FNV_PRIME;
+            }
+            return finish(hash(h, url, authorityEnd, end, false));
+        }
+
+        private static long hash(long h, String s, int from, int to, boolean lowerCase) {
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (lowerCase && c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                h = (h ^ c) * FNV_PRIME;
+            }
+            return h;
+        }
+
+        /** MurmurHash3's 64-bit finalizer: every input bit affects every output bit. */
+        static long finish(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+
+    /**
+     * Concurrent insert-only set of {@code long} values in direct (off-heap) memory. Values are
+     * split across {@value #STRIPES} stripes by their top bits; each stripe is an
+     * open-addressing, linear-probing table of raw longs with 0 marking an empty slot. Inserts
+     * claim slots with a compare-and-set under the stripe's shared lock, so they proceed in
+     * parallel; only doubling a stripe that passed its load factor takes the exclusive lock,
+     * and other stripes keep accepting inserts meanwhile.
+     *
+     * <p>A set opened on a directory maps one file per stripe, so the OS page cache holds the
+     * tables and a restarted crawler reopens them without reading them in. A stripe grows by
+     * building the doubled table in a temporary file, forcing it to disk and atomically renaming
+     * it over the old one, so a crash mid-resize leaves the previous table intact. Each file's
+     * header records whether it was closed cleanly; after a crash the entry count is recovered
+     * by scanning the table.
+     */
+    private static class OffHeapLongSet implements Closeable {
+        private static final int STRIPES = 64;
+        private static final int STRIPE_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(STRIPES);
+        private static final int INITIAL_STRIPE_CAPACITY = 1 << 12;
+        private static final double MAX_LOAD = 0.75;
+        private static final long EMPTY = 0L;
+        private static final long ZERO_SUBSTITUTE = 0x9e3779b97f4a7c15L;
+        private static final VarHandle LONGS =
+                MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+        private static final long MAGIC = 0x5649534954454431L; // "VISITED1"
+        private static final int HEADER_BYTES = 64;
+        private static final int CAPACITY_OFFSET = 8;
+        private static final int CLEAN_OFFSET = 12;
+        private static final int COUNT_OFFSET = 16;
+
+        private final Stripe[] stripes = new Stripe[STRIPES];
+
+        private OffHeapLongSet(Path directory) throws IOException {
+            if (directory != null) {
+                Files.createDirectories(directory);
+            }
+            for (int i = 0; i < STRIPES; i++) {
+                Path file = directory == null ? null : directory.resolve(String.format("stripe-%02d.tbl", i));
+                stripes[i] = new Stripe(file);
+            }
+        }
+
+        static OffHeapLongSet inMemory() {
+            try {
+                return new OffHeapLongSet(null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // no files involved
+            }
+        }
+
+        /** Opens the set persisted under {@code directory}, creating it if needed. */
+        static OffHeapLongSet open(Path directory) throws IOException {
+            return new OffHeapLongSet(directory);
+        }
+
+        /** Returns {@code true} if {@code value} was not present before. */
+        boolean add(long value) {
+            if (value == EMPTY) {
+                value = ZERO_SUBSTITUTE;
+            }
+            return stripes[(int) (value >>> STRIPE_SHIFT)].add(value);
+        }
+
+        boolean contains(long value) {
+            if (value == EMPTY) {
+                value = ZERO_SUBSTITUTE;
+            }
+            return stripes[(int) (value >>> STRIPE_SHIFT)].contains(value);
+        }
+
+        /**
+         * Adds every value in {@code values}, setting {@code added[i]} when {@code values[i]} was
+         * not present before. Values are grouped by stripe so each stripe's lock is taken once
+         * per batch rather than once per value.
+         */
+        void addAll(long[] values, boolean[] added) {
+            int[] stripeStart = new int[STRIPES + 1];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == EMPTY) {
+                    values[i] = ZERO_SUBSTITUTE;
+                }
+                stripeStart[(int) (values[i] >>> STRIPE_SHIFT) + 1]++;
+            }
+            for (int s = 0; s < STRIPES; s++) {
+                stripeStart[s + 1] += stripeStart[s];
+            }
+            int[] order = new int[values.length];
+            int[] next = Arrays.copyOf(stripeStart, STRIPES);
+            for (int i = 0; i < values.length; i++) {
+                order[next[(int) (values[i] >>> STRIPE_SHIFT)]++] = i;
+            }
+            for (int s = 0; s < STRIPES; s++) {
+                if (stripeStart[s] < stripeStart[s + 1]) {
+                    stripes[s].addAll(values, order, stripeStart[s], stripeStart[s + 1], added);
+                }
+            }
+        }
+
+        long size() {
+            long size = 0;
+            for (Stripe stripe : stripes) {
+                size += stripe.count.get();
+            }
+            return size;
+        }
+
+        /**
+         * Calls {@code action} with every value, one stripe at a time under its shared lock;
+         * values added concurrently may or may not be seen.
+         */
+        void forEach(LongConsumer action) {
+            for (Stripe stripe : stripes) {
+                stripe.forEach(action);
+            }
+        }
+
+        void clear() {
+            for (Stripe stripe : stripes) {
+                stripe.clear();
+            }
+        }
+
+        /** Flushes mapped tables to disk and marks them cleanly closed. */
+        @Override
+        public void close() throws IOException {
+            for (Stripe stripe : stripes) {
+                stripe.close();
+            }
+        }
+
+        private static final class Stripe {
+            private final Path file;
+            private final StampedLock lock = new StampedLock();
+            private final AtomicInteger count = new AtomicInteger();
+            private ByteBuffer table;
+            private int capacity;
+
+            Stripe(Path file) throws IOException {
+                this.file = file;
+                if (file != null && Files.exists(file)) {
+                    reopen();
+                } else {
+                    table = allocate(file, INITIAL_STRIPE_CAPACITY);
+                    capacity = INITIAL_STRIPE_CAPACITY;
+                    force(table);
+                }
+            }
+
+            boolean add(long value) {
+                while (true) {
+                    int size;
+                    long stamp = lock.readLock();
+                    try {
+                        int slot = insert(table, capacity, value);
+                        if (slot >= 0) {
+                            return false;
+                        }
+                        if (slot == -1) {
+                            size = count.incrementAndGet();
+                            if (size <= capacity * MAX_LOAD) {
+                                return true;
+                            }
+                        } else {
+                            size = -1;
+                        }
+                    } finally {
+                        lock.unlockRead(stamp);
+                    }
+                    grow(size);
+                    if (size > 0) {
+                        return true;
+                    }
+                }
+            }
+
+            boolean contains(long value) {
+                long stamp = lock.readLock();
+                try {
+                    int mask = capacity - 1;
+                    int index = (int) value & mask;
+                    for (int probes = 0; probes < capacity; probes++) {
+                        long current = (long) LONGS.getVolatile(table, HEADER_BYTES + index * Long.BYTES);
+                        if (current == value) {
+                            return true;
+                        }
+                        if (current == EMPTY) {
+                            return false;
+                        }
+                        index = (index + 1) & mask;
+                    }
+                    return false;
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+
+            void addAll(long[] values, int[] order, int from, int to, boolean[] added) {
+                int i = from;
+                while (i < to) {
+                    int size = 0;
+                    long stamp = lock.readLock();
+                    try {
+                        for (; i < to; i++) {
+                            int slot = insert(table, capacity, values[order[i]]);
+                            if (slot == -2) {
+                                size = -1;
+                                break;
+                            }
+                            if (slot == -1) {
+                                added[order[i]] = true;
+                                size = count.incrementAndGet();
+                                if (size > capacity * MAX_LOAD) {
+                                    i++;
+                                    break;
+                                }
+                            }
+                        }
+                    } finally {
+                        lock.unlockRead(stamp);
+                    }
+                    if (size == -1 || size > capacity * MAX_LOAD) {
+                        grow(size);
+                    }
+                }
+            }
+
+            /**
+             * Probes for {@code value}. Returns its slot if present, -1 if it was just inserted
+             * into an empty slot, or -2 if the table is full.
+             */
+            private static int insert(ByteBuffer table, int capacity, long value) {
+                int mask = capacity - 1;
+                int index = (int) value & mask;
+                for (int probes = 0; probes < capacity; probes++) {
+                    int offset = HEADER_BYTES + index * Long.BYTES;
+                    long current = (long) LONGS.getVolatile(table, offset);
+                    if (current == EMPTY) {
+                        if (LONGS.compareAndSet(table, offset, EMPTY, value)) {
+                            return -1;
+                        }
+                        current = (long) LONGS.getVolatile(table, offset);
+                    }
+                    if (current == value) {
+                        return index;
+                    }
+                    index = (index + 1) & mask;
+                }
+                return -2;
+            }
+
+            private void grow(int observedSize) {
+                long stamp = lock.writeLock();
+                try {
+                    if (observedSize > 0 && count.get() <= capacity * MAX_LOAD) {
+                        return; // another thread already grew this stripe
+                    }
+                    int newCapacity = capacity * 2;
+                    Path temporary = file == null ? null : file.resolveSibling(file.getFileName() + ".tmp");
+                    ByteBuffer newTable = allocate(temporary, newCapacity);
+                    for (int i = 0; i < capacity; i++) {
+                        long value = (long) LONGS.get(table, HEADER_BYTES + i * Long.BYTES);
+                        if (value != EMPTY) {
+                            insert(newTable, newCapacity, value);
+                        }
+                    }
+                    replaceWith(newTable, temporary);
+                    capacity = newCapacity;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+            void forEach(LongConsumer action) {
+                long stamp = lock.readLock();
+                try {
+                    for (int i = 0; i < capacity; i++) {
+                        long value = (long) LONGS.getVolatile(table, HEADER_BYTES + i * Long.BYTES);
+                        if (value != EMPTY) {
+                            action.accept(value);
+                        }
+                    }
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+
+            void clear() {
+                long stamp = lock.writeLock();
+                try {
+                    Path temporary = file == null ? null : file.resolveSibling(file.getFileName() + ".tmp");
+                    replaceWith(allocate(temporary, INITIAL_STRIPE_CAPACITY), temporary);
+                    capacity = INITIAL_STRIPE_CAPACITY;
+                    count.set(0);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+            void close() {
+                long stamp = lock.writeLock();
+                try {
+                    table.putLong(COUNT_OFFSET, count.get());
+                    table.putInt(CLEAN_OFFSET, 1);
+                    force(table);
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+            private void replaceWith(ByteBuffer newTable, Path temporary) throws IOException {
+                if (file != null) {
+                    force(newTable);
+                    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+                table = newTable;
+            }
+
+            private void reopen() throws IOException {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    table = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+                }
+                if (table.capacity() < HEADER_BYTES || table.getLong(0) != MAGIC) {
+                    throw new IOException(file + " is not a visited-set table");
+                }
+                capacity = table.getInt(CAPACITY_OFFSET);
+                if (Integer.bitCount(capacity) != 1 || table.capacity() != HEADER_BYTES + (long) capacity * Long.BYTES) {
+                    throw new IOException(file + " has an inconsistent size");
+                }
+                if (table.getInt(CLEAN_OFFSET) == 1) {
+                    count.set((int) table.getLong(COUNT_OFFSET));
+                } else {
+                    int entries = 0;
+                    for (int i = 0; i < capacity; i++) {
+                        if (table.getLong(HEADER_BYTES + i * Long.BYTES) != EMPTY) {
+                            entries++;
+                        }
+                    }
+                    count.set(entries);
+                }
+                table.putInt(CLEAN_OFFSET, 0);
+                force(table);
+            }
+
+            /** Allocates an empty table, mapped onto a fresh {@code target} file unless it is null. */
+            private static ByteBuffer allocate(Path target, int capacity) throws IOException {
+                long bytes = HEADER_BYTES + (long) capacity * Long.BYTES;
+                ByteBuffer table;
+                if (target == null) {
+                    table = ByteBuffer.allocateDirect((int) bytes);
+                } else {
+                    try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                        table = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                    }
+                }
+                table.order(ByteOrder.LITTLE_ENDIAN);
+                table.putLong(0, MAGIC);
+                table.putInt(CAPACITY_OFFSET, capacity);
+                table.putInt(CLEAN_OFFSET, 0);
+                return table;
+            }
+
+            private static void force(ByteBuffer table) {
+                if (table instanceof MappedByteBuffer) {
+                    ((MappedByteBuffer) table).force();
+                }
+            }
+        }
+    }
 
-public class AdvancedWebCrawlerGUI extends Application {
+    /**
+     * Contention benchmark for the visited set. Every thread claims the same pool of URLs starting
+     * at a different offset, so most claims collide with other threads. Compares
+     * {@link VisitedSet#claim} with the previous synchronized-HashSet contains-then-add, and
+     * reports how many URLs the latter handed to more than one thread. Run with
+     * {@code java crawl.java --bench-visited [maxThreads] [urls]}.
+     */
+    private static class VisitedSetBenchmark {
+        static void run(String[] args) throws InterruptedException {
+            int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+            int urlCount = args.length > 2 ? Integer.parseInt(args[2]) : 1 << 18;
 
-    private final int MAX_THREADS = 10;
-    private ExecutorService executorService;
-    private ConcurrentMap<String, PageInfo> crawledPages;
-    private Set<String> visitedUrls;
-    private BlockingQueue<CrawlTask> taskQueue;
+            String[] urls = new String[urlCount];
+            for (int i = 0; i < urlCount; i++) {
+                urls[i] = "https://example.com/section/" + (i % 997) + "/page-" + i + ".html";
+            }
 
-    private TextField urlField;
-    private TextField domainFilterField;
-    private Spinner<Integer> depthSpinner;
-    private Button startButton;
-    private TextArea logArea;
-    private ProgressBar progressBar;
-    private LineChart<Number, Number> crawlChart;
-    private XYChart.Series<Number, Number> dataSeries;
+            System.out.printf("%d urls, %d cores%n", urlCount, Runtime.getRuntime().availableProcessors());
+            System.out.printf("%8s %18s %18s %14s%n", "threads", "claim Mops/s", "sync-set Mops/s", "double fetches");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                run(threads, urls, true); // warm-up
+                double claimRate = run(threads, urls, true)[0];
+                double[] synchronizedResult = run(threads, urls, false);
+                System.out.printf("%8d %18.2f %18.2f %14d%n", threads, claimRate, synchronizedResult[0],
+                        (long) synchronizedResult[1]);
+            }
+        }
 
-    private volatile boolean isCrawling = false;
-    private int totalPagesCrawled = 0;
+        /** Returns {operations per microsecond, URLs won more than once}. */
+        private static double[] run(int threads, String[] urls, boolean useClaim) throws InterruptedException {
+            VisitedSet visitedSet = new VisitedSet();
+            Set<String> synchronizedSet = Collections.synchronizedSet(new HashSet<>());
+            LongAdder wins = new LongAdder();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int offset = (int) ((long) urls.length * t / threads);
+                workers[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long won = 0;
+                    for (int i = 0; i < urls.length; i++) {
+                        String url = urls[(offset + i) % urls.length];
+                        if (useClaim) {
+                            if (visitedSet.claim(url)) {
+                                won++;
+                            }
+                        } else if (!synchronizedSet.contains(url)) {
+                            synchronizedSet.add(url);
+                            won++;
+                        }
+                    }
+                    wins.add(won);
+                });
+                workers[t].start();
+            }
 
-    public static void main(String[] args) {
-        launch(args);
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsedNanos = System.nanoTime() - begin;
+            double opsPerMicro = (double) threads * urls.length / (elapsedNanos / 1_000.0);
+            return new double[] {opsPerMicro, wins.sum() - urls.length};
+        }
     }
 
-    @Override
-    public void start(Stage primaryStage) {
-        primaryStage.setTitle("Advanced Web Crawler");
+    /**
+     * Regression benchmark over a recorded crawl: replays every response in a WARC directory
+     * through {@link WarcReplaySource} (inflate, parse, link scan) on a number of threads and
+     * reports pages/sec, MB/sec and links found, with no network involved. Run with
+     * {@code java crawl.java --bench-replay <warcDir> [threads] [rounds]}.
+     */
+    private static class ReplayBenchmark {
+        static void run(String[] args) throws Exception {
+            if (args.length < 2) {
+                System.err.println("usage: --bench-replay <warcDir> [threads] [rounds]");
+                return;
+            }
+            WarcReplaySource source = WarcReplaySource.open(Paths.get(args[1]));
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+            int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+            long[] locations = source.locations().stream().mapToLong(Long::longValue).toArray();
+            System.out.printf("%d recorded responses, %d threads%n", locations.length, threads);
+            System.out.printf("%6s %10s %12s %10s %12s%n", "round", "millis", "pages/sec", "MB/sec", "links");
+            for (int round = 1; round <= rounds; round++) {
+                LongAdder bytes = new LongAdder();
+                LongAdder links = new LongAdder();
+                AtomicInteger next = new AtomicInteger();
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                long start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    pool.execute(() -> {
+                        int i;
+                        while ((i = next.getAndIncrement()) < locations.length) {
+                            try {
+                                PageInfo page = source.read(locations[i]);
+                                if (page != null) {
+                                    bytes.add(page.content.length);
+                                    links.add(page.links.size());
+                                }
+                            } catch (IOException e) {
+                                System.err.println("Cannot replay record: " + e.getMessage());
+                            }
+                        }
+                    });
+                }
+                pool.shutdown();
+                pool.awaitTermination(1, TimeUnit.DAYS);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%6d %10d %12.1f %10.1f %12d%n", round, (long) (seconds * 1000),
+                        locations.length / seconds, bytes.sum() / seconds / (1024 * 1024), links.sum());
+            }
+        }
+    }
 
-        BorderPane root = new BorderPane();
-        root.setTop(createControlPanel());
-        root.setCenter(createVisualizationPanel());
-        root.setBottom(createLogPanel());
+    /**
+     * Micro-benchmark suite for the crawler's hot paths, modelled on JMH: every benchmark runs
+     * warm-up iterations, then timed iterations of fixed length on one or more threads, and
+     * reports throughput (mean and standard deviation across iterations) together with the
+     * bytes allocated per operation, measured per thread like JMH's GC profiler. Results are
+     * consumed through a per-thread sink so the JIT cannot drop the work. The previous
+     * regex link extractor and a plain LinkedBlockingQueue are kept here as baselines. Reading
+     * from the {@link PageStore} is preceded by a round trip that checks stored bodies survive
+     * compression and a reopen. Run with {@code java crawl.java --bench-micro [nameFilter]}.
+     */
+    private static class MicroBenchmarks {
+        private static final int WARMUP_ITERATIONS = 3;
+        private static final int MEASUREMENT_ITERATIONS = 5;
+        private static final long ITERATION_MILLIS = 1000;
+        private static final int STORED_PAGES = 2000;
+        private static final int STORE_SEGMENT_BYTES = 1024 * 1024;
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private static volatile Object blackhole;
 
-        Scene scene = new Scene(root, 800, 600);
-        primaryStage.setScene(scene);
-        primaryStage.show();
+        /** One benchmark operation; each thread gets its own instance. */
+        private interface Operation {
+            Object run() throws Exception;
+        }
 
-        initializeCrawler();
-    }
+        static void run(String[] args) throws Exception {
+            String filter = args.length > 1 ? args[1] : "";
+            System.out.printf("%-34s %7s %14s %12s %12s%n", "Benchmark", "Threads", "Score", "Stdev", "Alloc B/op");
 
-    private VBox createControlPanel() {
-        VBox controlPanel = new VBox(10);
-        GridPane grid = new GridPane();
-        grid.setHgap(10);
-        grid.setVgap(10);
+            for (int size : new int[] {50 * 1024, 500 * 1024, 2 * 1024 * 1024}) {
+                byte[] page = syntheticPage(size, size);
+                String label = size >= 1024 * 1024 ? size / (1024 * 1024) + "MB" : size / 1024 + "KB";
+                bench(filter, "extractLinks.scanner." + label, 1, () -> () -> {
+                    LinkScanner scanner = new LinkScanner();
+                    for (int offset = 0; offset < page.length; offset += 16 * 1024) {
+                        scanner.feed(page, offset, Math.min(16 * 1024, page.length - offset));
+                    }
+                    return scanner.finish();
+                });
+                bench(filter, "extractLinks.regexBaseline." + label, 1,
+                        () -> () -> regexExtractLinks(new String(page, StandardCharsets.UTF_8)));
+            }
 
-        urlField = new TextField();
-        urlField.setPromptText("Enter starting URL");
-        grid.add(new Label("Start URL:"), 0, 0);
-        grid.add(urlField, 1, 0);
+            String[] urls = new String[1 << 18];
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = "https://www.example.com/section-" + (i % 101) + "/article-" + i + ".html?ref=home#top";
+            }
+            for (int threads : new int[] {1, 4, 16}) {
+                VisitedSet visited = new VisitedSet();
+                AtomicInteger threadIds = new AtomicInteger();
+                bench(filter, "visitedUrls.claim", threads, () -> {
+                    int[] next = {threadIds.getAndIncrement() * 7919};
+                    return () -> visited.claim(urls[next[0]++ & (urls.length - 1)]);
+                });
+                Set<String> synchronizedSet = Collections.synchronizedSet(new HashSet<>());
+                bench(filter, "visitedUrls.synchronizedBaseline", threads, () -> {
+                    int[] next = {threadIds.getAndIncrement() * 7919};
+                    return () -> {
+                        String url = urls[next[0]++ & (urls.length - 1)];
+                        return !synchronizedSet.contains(url) && synchronizedSet.add(url);
+                    };
+                });
+            }
 
-        domainFilterField = new TextField();
-        domainFilterField.setPromptText("Enter domain filter");
-        grid.add(new Label("Domain Filter:"), 0, 1);
-        grid.add(domainFilterField, 1, 1);
+            for (int threads : new int[] {1, 4}) {
+                HostFrontier frontier = new HostFrontier(Duration.ZERO, Integer.MAX_VALUE, null, Integer.MAX_VALUE);
+                AtomicInteger threadIds = new AtomicInteger();
+                bench(filter, "frontier.offerPoll", threads, () -> {
+                    int[] next = {threadIds.getAndIncrement() * 7919};
+                    return () -> {
+                        frontier.offer(new CrawlTask(urls[next[0]++ & (urls.length - 1)], 1));
+                        CrawlTask task = frontier.poll(1, TimeUnit.SECONDS);
+                        frontier.complete(task);
+                        return task;
+                    };
+                });
+                BlockingQueue<CrawlTask> queue = new LinkedBlockingQueue<>();
+                bench(filter, "frontier.linkedQueueBaseline", threads, () -> {
+                    int[] next = {threadIds.getAndIncrement() * 7919};
+                    return () -> {
+                        queue.offer(new CrawlTask(urls[next[0]++ & (urls.length - 1)], 1));
+                        return queue.poll(1, TimeUnit.SECONDS);
+                    };
+                });
+            }
 
-        depthSpinner = new Spinner<>(1, 10, 3);
-        grid.add(new Label("Max Depth:"), 0, 2);
-        grid.add(depthSpinner, 1, 2);
+            HttpHeaders headers = HttpHeaders.of(Map.of("content-type", List.of("text/html; charset=utf-8")),
+                    (name, value) -> true);
+            byte[] body = syntheticPage(50 * 1024, 1);
+            List<String> links = List.of(urls[0], urls[1], urls[2]);
+            bench(filter, "pageInfo.allocate", 1, () -> () ->
+                    new PageInfo(urls[0], 200, headers, body, links, Instant.EPOCH));
 
-        startButton = new Button("Start Crawling");
-        startButton.setOnAction(e -> toggleCrawling());
-        grid.add(startButton, 1, 3);
+            bench(filter, "urlParsing.newURL", 1, () -> {
+                int[] next = {0};
+                return () -> new URL(urls[next[0]++ & (urls.length - 1)]);
+            });
+            bench(filter, "urlParsing.uriCreate", 1, () -> {
+                int[] next = {0};
+                return () -> URI.create(urls[next[0]++ & (urls.length - 1)]);
+            });
+            bench(filter, "urlParsing.fingerprint", 1, () -> {
+                int[] next = {0};
+                return () -> UrlFingerprint.of(urls[next[0]++ & (urls.length - 1)]);
+            });
 
-        progressBar = new ProgressBar(0);
-        progressBar.setMaxWidth(Double.MAX_VALUE);
-        grid.add(progressBar, 0, 4, 2, 1);
+            if ("pageStore.read".contains(filter)) {
+                Path directory = Files.createTempDirectory("page-store-bench");
+                try (PageStore store = pageStoreRoundTrip(directory, urls, STORED_PAGES)) {
+                    bench(filter, "pageStore.read", 1, () -> {
+                        int[] next = {0};
+                        return () -> store.read(urls[next[0]++ % STORED_PAGES]);
+                    });
+                } finally {
+                    try (java.util.stream.Stream<Path> files = Files.walk(directory)) {
+                        files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                    }
+                }
+            }
+        }
 
-        controlPanel.getChildren().addAll(grid);
-        return controlPanel;
-    }
+        /**
+         * Self-check of {@link PageStore}: stores {@code count} pages, every fourth a copy of an
+         * earlier body so content addressing is exercised, then reopens the store from its index
+         * and fails unless every body reads back byte for byte. Returns the reopened store.
+         */
+        private static PageStore pageStoreRoundTrip(Path directory, String[] urls, int count) throws IOException {
+            byte[][] bodies = new byte[count][];
+            try (PageStore store = new PageStore(directory, STORE_SEGMENT_BYTES)) {
+                for (int i = 0; i < count; i++) {
+                    bodies[i] = i % 4 == 3 ? bodies[i - 3] : syntheticPage(8 * 1024 + i % 64 * 512, i);
+                    store.store(urls[i], bodies[i]);
+                }
+            }
+            PageStore reopened = new PageStore(directory, STORE_SEGMENT_BYTES);
+            for (int i = 0; i < count; i++) {
+                if (!Arrays.equals(reopened.read(urls[i]), bodies[i])) {
+                    reopened.close();
+                    throw new IllegalStateException("Page store returned a different body for " + urls[i]);
+                }
+            }
+            System.out.printf("%-34s %d pages stored, reopened and read back intact%n", "pageStore.roundTrip", count);
+            return reopened;
+        }
 
-    private VBox createVisualizationPanel() {
-        VBox visualizationPanel = new VBox(10);
+        private static void bench(String filter, String name, int threads, Supplier<Operation> perThread)
+                throws InterruptedException {
+            if (!name.contains(filter)) {
+                return;
+            }
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                iteration(threads, perThread);
+            }
+            double[] scores = new double[MEASUREMENT_ITERATIONS];
+            long totalOps = 0;
+            long totalBytes = 0;
+            for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+                long[] result = iteration(threads, perThread);
+                scores[i] = result[0] * 1000.0 / result[2];
+                totalOps += result[0];
+                totalBytes += result[1];
+            }
+            double mean = Arrays.stream(scores).average().orElse(0);
+            double variance = Arrays.stream(scores).map(score -> (score - mean) * (score - mean)).sum()
+                    / Math.max(1, scores.length - 1);
+            System.out.printf("%-34s %7d %10.1f ops/s %12.1f %12.1f%n", name, threads, mean, Math.sqrt(variance),
+                    totalOps == 0 ? 0.0 : (double) totalBytes / totalOps);
+        }
 
-        NumberAxis xAxis = new NumberAxis();
-        NumberAxis yAxis = new NumberAxis();
-        crawlChart = new LineChart<>(xAxis, yAxis);
-        crawlChart.setTitle("Crawl Progress");
-        xAxis.setLabel("Time (seconds)");
-        yAxis.setLabel("Pages Crawled");
+        /** Runs one timed iteration; returns {operations, bytes allocated, elapsed millis}. */
+        private static long[] iteration(int threads, Supplier<Operation> perThread) throws InterruptedException {
+            AtomicBoolean running = new AtomicBoolean(true);
+            CountDownLatch ready = new CountDownLatch(threads);
+            CountDownLatch go = new CountDownLatch(1);
+            LongAdder operations = new LongAdder();
+            LongAdder allocated = new LongAdder();
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                Operation operation = perThread.get();
+                workers[t] = new Thread(() -> {
+                    Object[] sink = new Object[1];
+                    long ops = 0;
+                    ready.countDown();
+                    try {
+                        go.await();
+                        long allocatedBefore = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+                        while (running.get()) {
+                            sink[0] = operation.run();
+                            ops++;
+                        }
+                        allocated.add(THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    operations.add(ops);
+                    blackhole = sink[0];
+                });
+                workers[t].start();
+            }
+            ready.await();
+            long start = System.nanoTime();
+            go.countDown();
+            Thread.sleep(ITERATION_MILLIS);
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            return new long[] {operations.sum(), allocated.sum(), elapsedMillis};
+        }
 
-        dataSeries = new XYChart.Series<>();
-        dataSeries.setName("Crawl Rate");
-        crawlChart.getData().add(dataSeries);
+        /** The link extractor this crawler used before {@link LinkScanner}, kept as a baseline. */
+        private static List<String> regexExtractLinks(String content) {
+            List<String> links = new ArrayList<>();
+            Pattern pattern = Pattern.compile("href=\"(http[s]?://.*?)\"");
+            Matcher matcher = pattern.matcher(content);
+            while (matcher.find()) {
+                links.add(matcher.group(1));
+            }
+            return links;
+        }
 
-        visualizationPanel.getChildren().add(crawlChart);
-        return visualizationPanel;
+        /**
+         * Deterministic HTML page of about {@code bytes} bytes with a realistic mix of markup,
+         * text, scripts and links (roughly one per 250 bytes, in varying quoting and case).
+         */
+        static byte[] syntheticPage(int bytes, long seed) {
+            Random random = new Random(seed);
+            StringBuilder html = new StringBuilder(bytes + 512)
+                    .append("<!DOCTYPE html>\n<html lang=\"en\"><head><meta charset=\"utf-8\"><title>Page ")
+                    .append(seed).append("</title>\n<link rel=\"stylesheet\" href=\"https://cdn.example.com/site.css\">\n")
+                    .append("<script>var config = {tracking: true, threshold: 3 < 4};</script></head>\n<body>\n");
+            while (html.length() < bytes) {
+                switch (random.nextInt(6)) {
+                    case 0:
+                        html.append("<a href=\"https://www.example.com/section-").append(random.nextInt(100))
+                                .append("/article-").append(random.nextInt(100000)).append(".html\">Read more</a>\n");
+                        break;
+                    case 1:
+                        html.append("<A class='nav' HREF='http://www.example.com/tag/").append(random.nextInt(500))
+                                .append("'>Tag</A> ");
+                        break;
+                    case 2:
+                        html.append("<img src=https://img.example.com/").append(random.nextInt(10000))
+                                .append(".jpg alt=\"\" width=640 height=480>\n");
+                        break;
+                    case 3:
+                        html.append("<a href=\"/relative/").append(random.nextInt(1000)).append("\">local</a> ");
+                        break;
+                    default:
+                        html.append("<p class=\"body-text\" data-id=\"").append(random.nextInt())
+                                .append("\">Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod ")
+                                .append("tempor incididunt ut labore et dolore magna aliqua.</p>\n");
+                }
+            }
+            html.append("</body></html>\n");
+            return html.toString().getBytes(StandardCharsets.UTF_8);
+        }
     }
 
-    private VBox createLogPanel() {
-        VBox logPanel = new VBox(10);
-        logArea = new TextArea();
-        logArea.setEditable(false);
-        logArea.setWrapText(true);
-        logPanel.getChildren().add(logArea);
-        return logPanel;
-    }
+    /**
+     * Deterministic synthetic website for load tests. It serves {@code pages} pages at
+     * {@code /page/<n>}, each linking to the next page and to {@code outDegree - 1} others. Body
+     * sizes and response latencies are log-normally distributed around configurable medians,
+     * and a fixed fraction of pages answers 500. Everything about page n derives from the seed
+     * and n alone, so every run serves the same site and the number of pages a crawl from page 0
+     * can fetch is known up front ({@link #reachable}). Responses wait out their latency on
+     * their own (virtual, where available) thread, so slow pages do not hold up others.
+     */
+    private static class SyntheticSite implements Closeable {
+        private static final byte[] FILLER = ("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do "
+                + "eiusmod tempor incididunt ut labore et dolore magna aliqua.</p>\n").getBytes(StandardCharsets.US_ASCII);
+        private static final int MAX_BYTES = 8 * 1024 * 1024;
 
-    private void initializeCrawler() {
-        executorService = Executors.newFixedThreadPool(MAX_THREADS);
-        crawledPages = new ConcurrentHashMap<>();
-        visitedUrls = Collections.synchronizedSet(new HashSet<>());
-        taskQueue = new LinkedBlockingQueue<>();
-    }
+        /** Shape of the site; the distribution parameters come from {@code crawler.site.*} properties. */
+        static class Config {
+            final int pages;
+            final int outDegree;
+            final int medianBytes = Integer.getInteger("crawler.site.medianBytes", 16 * 1024);
+            final double sizeSigma = Double.parseDouble(System.getProperty("crawler.site.sizeSigma", "1.0"));
+            final int medianLatencyMillis = Integer.getInteger("crawler.site.medianLatencyMillis", 20);
+            final double latencySigma = Double.parseDouble(System.getProperty("crawler.site.latencySigma", "0.5"));
+            final double errorRate = Double.parseDouble(System.getProperty("crawler.site.errorRate", "0.01"));
+            final long seed = Long.getLong("crawler.site.seed", 42);
+
+            Config(int pages, int outDegree) {
+                this.pages = pages;
+                this.outDegree = outDegree;
+            }
 
-    private void toggleCrawling() {
-        if (!isCrawling) {
-            startCrawling();
-        } else {
-            stopCrawling();
+            @Override
+            public String toString() {
+                return String.format("%d pages, out-degree %d, median %d bytes (sigma %.2f), median latency %d ms "
+                                + "(sigma %.2f), error rate %.3f, seed %d", pages, outDegree, medianBytes, sizeSigma,
+                        medianLatencyMillis, latencySigma, errorRate, seed);
+            }
         }
-    }
 
-    private void startCrawling() {
-        String startUrl = urlField.getText();
-        String domainFilter = domainFilterField.getText();
-        int maxDepth = depthSpinner.getValue();
+        private static class Page {
+            final boolean error;
+            final int bytes;
+            final long latencyMillis;
+            final int[] links;
 
-        if (startUrl.isEmpty() || domainFilter.isEmpty()) {
-            showAlert("Error", "Please enter a starting URL and domain filter.");
-            return;
+            Page(boolean error, int bytes, long latencyMillis, int[] links) {
+                this.error = error;
+                this.bytes = bytes;
+                this.latencyMillis = latencyMillis;
+                this.links = links;
+            }
+        }
+
+        private final Config config;
+        private final HttpServer server;
+        private final ExecutorService executor;
+        private final String baseUrl;
+
+        SyntheticSite(Config config, int port) throws IOException {
+            this.config = config;
+            this.executor = newVirtualThreadExecutor();
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+            this.baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/page/";
+            server.createContext("/page/", exchange -> {
+                try {
+                    int n;
+                    try {
+                        n = Integer.parseInt(exchange.getRequestURI().getPath().substring("/page/".length()));
+                    } catch (NumberFormatException e) {
+                        n = -1;
+                    }
+                    if (n < 0 || n >= config.pages) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    Page page = page(n);
+                    Thread.sleep(page.latencyMillis);
+                    if (page.error) {
+                        exchange.sendResponseHeaders(500, -1);
+                        return;
+                    }
+                    byte[] body = render(n, page);
+                    exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            });
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        /** Runs the site until the process is killed: {@code --serve-site [pages] [outDegree] [port]}. */
+        static void serve(String[] args) throws IOException {
+            int pages = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+            int outDegree = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+            int port = args.length > 3 ? Integer.parseInt(args[3]) : 8080;
+            SyntheticSite site = new SyntheticSite(new Config(pages, outDegree), port);
+            System.out.println(site.config);
+            System.out.printf("Serving at %s (%d pages reachable from %s)%n", site.baseUrl, site.reachable(),
+                    site.seedUrl());
+        }
+
+        String seedUrl() {
+            return baseUrl + 0;
         }
 
-        isCrawling = true;
-        startButton.setText("Stop Crawling");
-        clearPreviousResults();
+        /** {@code host:port}, for use as the crawl's domain filter. */
+        String authority() {
+            return "127.0.0.1:" + server.getAddress().getPort();
+        }
 
-        taskQueue.offer(new CrawlTask(startUrl, 0));
+        /**
+         * Number of pages a crawl from page 0 fetches with status 200: pages reachable through
+         * links of successful pages, minus the error pages among them.
+         */
+        int reachable() {
+            BitSet seen = new BitSet(config.pages);
+            int[] queue = new int[config.pages];
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = 0;
+            seen.set(0);
+            int fetched = 0;
+            while (head < tail) {
+                Page page = page(queue[head++]);
+                if (page.error) {
+                    continue;
+                }
+                fetched++;
+                for (int link : page.links) {
+                    if (!seen.get(link)) {
+                        seen.set(link);
+                        queue[tail++] = link;
+                    }
+                }
+            }
+            return fetched;
+        }
 
-        for (int i = 0; i < MAX_THREADS; i++) {
-            executorService.submit(new CrawlerWorker(maxDepth, domainFilter));
+        private Page page(int n) {
+            // Neighbouring seeds give java.util.Random nearly the same first draws, so (seed, n) is
+            // mixed through a finalizer first; otherwise errors and sizes cluster in runs of n.
+            SplittableRandom random =
+                    new SplittableRandom(UrlFingerprint.finish(config.seed ^ n * 0x9E3779B97F4A7C15L));
+            boolean error = n != 0 && random.nextDouble() < config.errorRate;
+            int bytes = (int) Math.min(MAX_BYTES, config.medianBytes * Math.exp(config.sizeSigma * random.nextGaussian()));
+            long latency = Math.round(config.medianLatencyMillis * Math.exp(config.latencySigma * random.nextGaussian()));
+            int[] links = new int[Math.max(1, config.outDegree)];
+            links[0] = (n + 1) % config.pages;
+            for (int i = 1; i < links.length; i++) {
+                links[i] = random.nextInt(config.pages);
+            }
+            return new Page(error, bytes, latency, links);
         }
 
+        private byte[] render(int n, Page page) {
+            StringBuilder head = new StringBuilder(128 + page.links.length * 64)
+                    .append("<!DOCTYPE html>\n<html><head><title>Page ").append(n).append("</title></head>\n<body>\n");
+            for (int link : page.links) {
+                head.append("<a href=\"").append(baseUrl).append(link).append("\">page ").append(link).append("</a>\n");
+            }
+            byte[] prefix = head.toString().getBytes(StandardCharsets.US_ASCII);
+            byte[] suffix = "</body></html>\n".getBytes(StandardCharsets.US_ASCII);
+            int fill = Math.max(0, page.bytes - prefix.length - suffix.length);
+            byte[] body = new byte[prefix.length + fill + suffix.length];
+            System.arraycopy(prefix, 0, body, 0, prefix.length);
+            for (int offset = 0; offset < fill; offset += FILLER.length) {
+                System.arraycopy(FILLER, 0, body, prefix.length + offset, Math.min(FILLER.length, fill - offset));
+            }
+            System.arraycopy(suffix, 0, body, prefix.length + fill, suffix.length);
+            return body;
+        }
 
-        new Thread(this::updateChart).start();
+        @Override
+        public void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
     }
 
-    private void stopCrawling() {
-        isCrawling = false;
-        startButton.setText("Start Crawling");
-        executorService.shutdownNow();
-        initializeCrawler();
+    /**
+     * End-to-end throughput benchmark: crawls a {@link SyntheticSite} with the full
+     * {@link CrawlEngine} (fetching, link extraction, deduplication, frontier and page store) in
+     * each execution mode, timing each crawl from start until the engine reports it finished,
+     * outputs flushed, and checking that it fetched every reachable page. Each mode runs
+     * {@code rounds} times; the first round includes JIT warm-up. Page data goes to a temporary
+     * directory. Run with
+     * {@code java crawl.java --bench-site [pages] [outDegree] [mode|ALL] [concurrency] [rounds]};
+     * the site's size, latency and error distributions come from {@code crawler.site.*} properties.
+     */
+    private static class SiteBenchmark {
+        private static final Duration CRAWL_TIMEOUT = Duration.ofMinutes(30);
+
+        static void run(String[] args) throws Exception {
+            int pages = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+            int outDegree = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+            List<ExecutionMode> modes = args.length > 3 && !args[3].equalsIgnoreCase("ALL")
+                    ? List.of(ExecutionMode.valueOf(args[3].toUpperCase(Locale.ROOT)))
+                    : List.of(ExecutionMode.values());
+            int concurrency = args.length > 4 ? Integer.parseInt(args[4]) : 256;
+            int rounds = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+
+            Path dataDir = Files.createTempDirectory("crawler-bench");
+            System.setProperty("crawler.dataDir", dataDir.toString());
+            SyntheticSite site = new SyntheticSite(new SyntheticSite.Config(pages, outDegree), 0);
+            CrawlEngine engine = new CrawlEngine(new CrawlEngine.Listener() {
+                @Override
+                public void onPage(PageInfo page, int depth) {
+                }
+
+                @Override
+                public void onMessage(String message) {
+                }
+            });
+            try {
+                int expected = site.reachable();
+                System.out.println("Site: " + site.config);
+                System.out.printf("Crawler: concurrency %d, %d cores, Java %s, virtual threads %s%n", concurrency,
+                        Runtime.getRuntime().availableProcessors(), Runtime.version(),
+                        virtualThreadsAvailable() ? "available" : "unavailable");
+                System.out.printf("%d pages reachable from the seed%n%n", expected);
+                System.out.printf("%-16s %5s %10s %10s %12s %10s %8s%n",
+                        "mode", "round", "millis", "pages", "pages/sec", "MB/sec", "errors");
+
+                boolean incomplete = false;
+                for (ExecutionMode mode : modes) {
+                    for (int round = 1; round <= rounds; round++) {
+                        CrawlEngine.Settings settings = new CrawlEngine.Settings(site.seedUrl(), site.authority());
+                        settings.maxDepth = Integer.MAX_VALUE - 1;
+                        settings.mode = mode;
+                        settings.concurrency = concurrency;
+                        settings.hostDelay = Duration.ZERO;
+                        settings.hostConcurrency = concurrency;
+
+                        CompletableFuture<CrawlEngine.Result> completion = engine.start(settings);
+                        try {
+                            completion.get(CRAWL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+                        } catch (TimeoutException e) {
+                            engine.stop();
+                        }
+                        CrawlEngine.Result result = completion.join();
+                        double seconds = result.wallTime.toNanos() / 1e9;
+                        incomplete |= result.pagesCrawled < expected;
+
+                        System.out.printf("%-16s %5d %10d %10s %12.1f %10.2f %8d%n", mode, round,
+                                result.wallTime.toMillis(),
+                                result.pagesCrawled + (result.pagesCrawled < expected ? "*" : ""),
+                                result.pagesCrawled / seconds,
+                                result.bytesDownloaded / (1024.0 * 1024) / seconds, result.errors);
+                        System.out.printf("%22s latency %s%n%22s leases %s%n", "", result.latency, "",
+                                result.leases);
+                    }
+                }
+                if (incomplete) {
+                    System.out.println("\n* crawl ended or timed out before fetching every reachable page");
+                }
+            } finally {
+                engine.close();
+                site.close();
+                try (java.util.stream.Stream<Path> files = Files.walk(dataDir)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
     }
 
-    private void clearPreviousResults() {
-        crawledPages.clear();
-        visitedUrls.clear();
-        taskQueue.clear();
-        totalPagesCrawled = 0;
-        logArea.clear();
-        dataSeries.getData().clear();
-        progressBar.setProgress(0);
+    enum ExecutionMode {
+        /** A few dispatcher threads, non-blocking sendAsync, in-flight requests capped by a semaphore. */
+        ASYNC,
+        /** MAX_THREADS platform threads, each blocking on one fetch at a time. */
+        FIXED_POOL,
+        /** One virtual thread per task, concurrency capped by a semaphore. */
+        VIRTUAL_THREADS
     }
 
-    private void updateChart() {
-        long startTime = System.currentTimeMillis();
-        while (isCrawling) {
+    /**
+     * Side-by-side throughput comparison of the execution modes. Serves pages with a fixed
+     * artificial latency from a local HttpServer and fetches the same number of pages through
+     * each mode. Run with {@code java crawl.java --bench [pages] [latencyMillis] [concurrency]}.
+     */
+    private static class ExecutionModeBenchmark {
+        private static final int FIXED_POOL_THREADS = 10;
+
+        static void run(String[] args) throws Exception {
+            int pages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+            int latencyMillis = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+            int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+            ExecutorService serverExecutor = newVirtualThreadExecutor();
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), concurrency);
+            byte[] body = "<html><body><a href=\"http://127.0.0.1/\">home</a></body></html>".getBytes();
+            server.createContext("/", exchange -> {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.setExecutor(serverExecutor);
+            server.start();
+
+            String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/page/";
+            System.out.printf("%d pages, %d ms latency, concurrency %d, virtual threads %s%n",
+                    pages, latencyMillis, concurrency, virtualThreadsAvailable() ? "available" : "unavailable");
+            System.out.printf("%-16s %10s %12s  %s%n", "mode", "millis", "pages/sec", "leases");
             try {
-                Thread.sleep(1000);
-                long elapsedSeconds = (System.currentTimeMillis() - startTime) / 1000;
-                Platform.runLater(() -> {
-                    dataSeries.getData().add(new XYChart.Data<>(elapsedSeconds, totalPagesCrawled));
-                    progressBar.setProgress((double) totalPagesCrawled / 1000);
-                });
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+                for (ExecutionMode mode : ExecutionMode.values()) {
+                    measure(mode, baseUrl, Math.min(pages, 200), concurrency, false); // warm-up
+                }
+                for (ExecutionMode mode : ExecutionMode.values()) {
+                    measure(mode, baseUrl, pages, concurrency, true);
+                }
+            } finally {
+                server.stop(0);
+                serverExecutor.shutdownNow();
             }
         }
-    }
 
-    private class CrawlerWorker implements Runnable {
-        private final int maxDepth;
-        private final String domainFilter;
+        private static void measure(ExecutionMode mode, String baseUrl, int pages, int concurrency, boolean report)
+                throws InterruptedException {
+            ExecutorService completions = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            CountDownLatch done = new CountDownLatch(pages);
+            Semaphore permits = new Semaphore(concurrency);
+            ExecutorService tasks = mode == ExecutionMode.FIXED_POOL
+                    ? Executors.newFixedThreadPool(FIXED_POOL_THREADS)
+                    : newVirtualThreadExecutor();
 
-        CrawlerWorker(int maxDepth, String domainFilter) {
-            this.maxDepth = maxDepth;
-            this.domainFilter = domainFilter;
+            HostConnectionPool pool = new HostConnectionPool(concurrency, concurrency, Duration.ofSeconds(30));
+            FetchTimings timings = new FetchTimings(1);
+            AsyncFetcher fetcher = new AsyncFetcher(completions, pool, timings);
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < pages; i++) {
+                    String url = baseUrl + i;
+                    if (mode == ExecutionMode.ASYNC) {
+                        permits.acquire();
+                        fetcher.fetch(url).whenComplete((page, error) -> {
+                            permits.release();
+                            done.countDown();
+                        });
+                    } else {
+                        if (mode == ExecutionMode.VIRTUAL_THREADS) {
+                            permits.acquire();
+                        }
+                        tasks.execute(() -> {
+                            try {
+                                fetcher.fetchBlocking(url);
+                            } catch (IOException e) {
+                                // counted as done; the benchmark measures dispatch throughput
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            } finally {
+                                if (mode == ExecutionMode.VIRTUAL_THREADS) {
+                                    permits.release();
+                                }
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+                done.await();
+                long elapsedNanos = System.nanoTime() - start;
+                if (report) {
+                    System.out.printf("%-16s %10d %12.1f  %s%n%16s %s%n", mode, elapsedNanos / 1_000_000,
+                            pages / (elapsedNanos / 1e9), pool.stats(), "", timings.summary());
+                }
+            } finally {
+                tasks.shutdownNow();
+                completions.shutdownNow();
+            }
         }
+    }
 
-        @Override
-        public void run() {
-            while (isCrawling) {
+    /**
+     * Serves {@link MetricsRegistry#prometheusText} at {@code /metrics} on the JDK's built-in HTTP
+     * server, for Prometheus to scrape. Requests are handled on one dedicated daemon thread, and
+     * rendering reads only counters, gauges and lock-free samplers, so a scrape never waits on
+     * or steals time from the crawler threads.
+     */
+    private static class MetricsServer implements Closeable {
+        private final HttpServer server;
+        private final ExecutorService executor;
+
+        MetricsServer(MetricsRegistry metrics, InetSocketAddress address) throws IOException {
+            server = HttpServer.create(address, 0);
+            server.createContext("/metrics", exchange -> {
                 try {
-                    CrawlTask task = taskQueue.poll(1, TimeUnit.SECONDS);
-                    if (task != null) {
-                        processPage(task.url, task.depth);
+                    if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
                     }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
+                    byte[] body = metrics.prometheusText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    if (exchange.getRequestMethod().equals("HEAD")) {
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            });
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Log-linear latency histogram in the style of HdrHistogram: a value is bucketed by its power
+     * of two and, within that, into one of 32 linear sub-buckets, so every value from a microsecond to
+     * over an hour is kept to within about 3%. Counts live in an {@link AtomicLongArray}, so
+     * {@link #recordNanos} is lock-free and allocates nothing.
+     */
+    private static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_SHIFT = 26;
+        private static final long MAX_MICROS = (2L * SUB_BUCKETS << MAX_SHIFT) - 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * (MAX_SHIFT + 2));
+        private final LongAdder sumMicros = new LongAdder();
+
+        void recordNanos(long nanos) {
+            long micros = Math.min(Math.max(nanos / 1000, 0), MAX_MICROS);
+            counts.incrementAndGet(indexOf(micros));
+            sumMicros.add(micros);
+        }
+
+        long sumMicros() {
+            return sumMicros.sum();
+        }
+
+        long count() {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            return total;
+        }
+
+        /**
+         * Microseconds at or below which {@code quantile} of the recorded values fall, rounded up
+         * to the top of their bucket; 0 if nothing has been recorded.
+         */
+        long percentile(double quantile) {
+            long total = count();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            int last = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                long count = counts.get(i);
+                if (count == 0) {
+                    continue;
+                }
+                last = i;
+                seen += count;
+                if (seen >= rank) {
+                    return highestValueIn(i);
+                }
+            }
+            return highestValueIn(last); // values recorded while scanning
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            sumMicros.reset();
+        }
+
+        static int indexOf(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+            return (int) (SUB_BUCKETS * shift + (micros >>> shift));
+        }
+
+        static long highestValueIn(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long mantissa = SUB_BUCKETS + index % SUB_BUCKETS;
+            return ((mantissa + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * Fetch latency broken down by phase, overall and per host, so a slow crawl can be pinned on
+     * name resolution, connection setup, server think time or transfer. {@link HttpClient} does
+     * not expose its connections, so the phases are what {@link AsyncFetcher} can observe:
+     * <ul>
+     *   <li>{@code DNS}: one lookup per host, ahead of its first request; later lookups are
+     *       answered by the JDK's address cache, or happen inside the client, unseen;
+     *   <li>{@code CONNECT}: request to response headers on a new connection, i.e. TCP connect,
+     *       TLS handshake and server think time together;
+     *   <li>{@code TTFB}: request to response headers on a reused connection, i.e. think time;
+     *   <li>{@code BODY}: response headers to the last body byte.
+     * </ul>
+     * Comparing {@code CONNECT} against {@code TTFB} shows the cost of connection setup, though
+     * which of the two a request counts as follows {@link HostConnectionPool}'s estimate of
+     * whether its connection is new, so the split is approximate. Per-host histograms are kept
+     * for the first {@code maxHosts} hosts only, to bound memory.
+     */
+    private static class FetchTimings {
+        enum Phase { DNS, CONNECT, TTFB, BODY }
+
+        private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+        private final int maxHosts;
+        private final LatencyHistogram[] overall = newHistograms();
+        private final ConcurrentMap<String, LatencyHistogram[]> hosts = new ConcurrentHashMap<>();
+
+        FetchTimings(int maxHosts) {
+            this.maxHosts = maxHosts;
+        }
+
+        void record(String host, Phase phase, long nanos) {
+            overall[phase.ordinal()].recordNanos(nanos);
+            if (host == null) {
+                return;
+            }
+            LatencyHistogram[] perHost = hosts.get(host);
+            if (perHost == null) {
+                if (hosts.size() >= maxHosts) {
+                    return;
+                }
+                perHost = hosts.computeIfAbsent(host, key -> newHistograms());
+            }
+            perHost[phase.ordinal()].recordNanos(nanos);
+        }
+
+        /** p50/p99/p999 of every phase in milliseconds, e.g. {@code "TTFB 12.3/80.1/95.0 ms"}. */
+        String summary() {
+            StringJoiner phases = new StringJoiner(", ");
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = overall[phase.ordinal()];
+                phases.add(String.format("%s %.1f/%.1f/%.1f", phase, histogram.percentile(0.5) / 1000.0,
+                        histogram.percentile(0.99) / 1000.0, histogram.percentile(0.999) / 1000.0));
+            }
+            return phases + " ms (p50/p99/p999)";
+        }
+
+        /** The host with the highest p99 in {@code phase}, with that p99, or "-" before any fetch. */
+        String slowestHost(Phase phase) {
+            String slowest = null;
+            long worst = -1;
+            for (Map.Entry<String, LatencyHistogram[]> entry : hosts.entrySet()) {
+                long p99 = entry.getValue()[phase.ordinal()].percentile(0.99);
+                if (p99 > worst) {
+                    worst = p99;
+                    slowest = entry.getKey();
                 }
             }
+            return slowest == null ? "-" : String.format("%s (%.1f ms)", slowest, worst / 1000.0);
+        }
+
+        /** Adds the latency quantiles, overall and per host, to a metrics snapshot. */
+        void export(Map<String, Long> values) {
+            for (Phase phase : Phase.values()) {
+                String label = phase.name().toLowerCase(Locale.ROOT);
+                export(values, "phase=\"" + label + "\"", overall[phase.ordinal()]);
+                hosts.forEach((host, histograms) ->
+                        export(values, "host=\"" + host + "\",phase=\"" + label + "\"", histograms[phase.ordinal()]));
+            }
         }
 
-        private void processPage(String url, int depth) {
-            if (depth > maxDepth || !url.contains(domainFilter) || visitedUrls.contains(url)) {
+        private static void export(Map<String, Long> values, String labels, LatencyHistogram histogram) {
+            long count = histogram.count();
+            if (count == 0) {
                 return;
             }
+            for (double quantile : QUANTILES) {
+                values.put("crawler_fetch_latency_microseconds{" + labels + ",quantile=\"" + quantile + "\"}",
+                        histogram.percentile(quantile));
+            }
+            values.put("crawler_fetch_latency_microseconds_count{" + labels + "}", count);
+            values.put("crawler_fetch_latency_microseconds_sum{" + labels + "}", histogram.sumMicros());
+        }
+
+        void reset() {
+            for (LatencyHistogram histogram : overall) {
+                histogram.reset();
+            }
+            hosts.clear();
+        }
+
+        private static LatencyHistogram[] newHistograms() {
+            LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+            Arrays.setAll(histograms, i -> new LatencyHistogram());
+            return histograms;
+        }
+    }
+
+    /**
+     * Named crawl metrics that the UI, the command line and exporters all read. Counters are
+     * {@link LongAdder}s, so crawler threads updating them never contend on one cache line;
+     * gauges are samplers evaluated on read, so the code that owns a value never has to
+     * publish it. Names follow Prometheus conventions and may carry labels, as in
+     * {@code crawler_errors_total{stage="fetch",type="ConnectException"}}. Callers on hot paths
+     * should keep the returned counter rather than look it up per event.
+     */
+    private static class MetricsRegistry {
+        private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, LongSupplier> samplers = new ConcurrentHashMap<>();
+        private final List<Consumer<Map<String, Long>>> collectors = new CopyOnWriteArrayList<>();
+        /** Metric family name to its {@code {type, help}} for the Prometheus exposition format. */
+        private final ConcurrentMap<String, String[]> descriptions = new ConcurrentHashMap<>();
+
+        LongAdder counter(String name) {
+            LongAdder counter = counters.get(name);
+            return counter != null ? counter : counters.computeIfAbsent(name, key -> new LongAdder());
+        }
 
-            visitedUrls.add(url);
-            PageInfo pageInfo = fetchPage(url);
+        /** Registers a gauge whose value is computed by {@code sampler} whenever it is read. */
+        void sample(String name, LongSupplier sampler) {
+            samplers.put(name, sampler);
+        }
+
+        /**
+         * Registers a source of metrics whose names are only known at runtime, such as per-host
+         * series; it adds its current values to the map it is given on every {@link #snapshot}.
+         */
+        void collect(Consumer<Map<String, Long>> collector) {
+            collectors.add(collector);
+        }
 
-            if (pageInfo != null) {
-                crawledPages.put(url, pageInfo);
-                totalPagesCrawled++;
-                updateLog("Crawled: " + url + " (Depth: " + depth + ")");
+        /** Current value of the counter or gauge called {@code name}, or 0 if there is none. */
+        long get(String name) {
+            LongAdder counter = counters.get(name);
+            if (counter != null) {
+                return counter.sum();
+            }
+            LongSupplier sampler = samplers.get(name);
+            return sampler == null ? 0 : sampler.getAsLong();
+        }
 
-                for (String link : pageInfo.links) {
-                    taskQueue.offer(new CrawlTask(link, depth + 1));
+        /** Total of the counter {@code name} over all of its label combinations. */
+        long sum(String name) {
+            long total = 0;
+            for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+                String key = entry.getKey();
+                if (key.equals(name) || (key.startsWith(name) && key.charAt(name.length()) == '{')) {
+                    total += entry.getValue().sum();
                 }
             }
+            return total;
         }
 
-        private PageInfo fetchPage(String url) {
-            try {
-                URL pageUrl = new URL(url);
-                HttpURLConnection conn = (HttpURLConnection) pageUrl.openConnection();
-                conn.setRequestMethod("GET");
+        /** Current value of every metric, sorted by name. */
+        SortedMap<String, Long> snapshot() {
+            SortedMap<String, Long> values = new TreeMap<>();
+            counters.forEach((name, counter) -> values.put(name, counter.sum()));
+            samplers.forEach((name, sampler) -> values.put(name, sampler.getAsLong()));
+            for (Consumer<Map<String, Long>> collector : collectors) {
+                collector.accept(values);
+            }
+            return values;
+        }
+
+        /**
+         * Sets the Prometheus type ({@code counter}, {@code gauge} or {@code summary}) and help
+         * text of the metric family {@code family}, i.e. the name without labels or suffixes.
+         */
+        void describe(String family, String type, String help) {
+            descriptions.put(family, new String[] {type, help});
+        }
+
+        /**
+         * Renders a {@link #snapshot} in the Prometheus text exposition format (version 0.0.4),
+         * one block per metric family with its HELP and TYPE lines.
+         */
+        String prometheusText() {
+            SortedMap<String, StringBuilder> families = new TreeMap<>();
+            snapshot().forEach((name, value) -> {
+                int brace = name.indexOf('{');
+                String family = familyOf(brace < 0 ? name : name.substring(0, brace));
+                families.computeIfAbsent(family, key -> new StringBuilder())
+                        .append(name).append(' ').append(value).append('\n');
+            });
+            StringBuilder text = new StringBuilder();
+            families.forEach((family, samples) -> {
+                String[] description = descriptions.get(family);
+                if (description != null) {
+                    text.append("# HELP ").append(family).append(' ').append(description[1]).append('\n');
+                    text.append("# TYPE ").append(family).append(' ').append(description[0]).append('\n');
+                }
+                text.append(samples);
+            });
+            return text.toString();
+        }
 
-                if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                    StringBuilder content = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        content.append(line);
+        private String familyOf(String metric) {
+            for (String suffix : new String[] {"_count", "_sum"}) {
+                if (metric.endsWith(suffix)) {
+                    String base = metric.substring(0, metric.length() - suffix.length());
+                    String[] description = descriptions.get(base);
+                    if (description != null && description[0].equals("summary")) {
+                        return base;
                     }
-                    reader.close();
+                }
+            }
+            return metric;
+        }
+
+        /** Zeroes every counter; gauges keep tracking their current value. */
+        void resetCounters() {
+            counters.values().forEach(LongAdder::reset);
+        }
+    }
+
+    /*
+     * Flight Recorder events for the crawl lifecycle, so a JFR recording shows crawler activity
+     * next to GC, thread parking and socket I/O. They cost next to nothing unless a recording
+     * enables them, e.g. java -XX:StartFlightRecording:filename=crawl.jfr crawl.java --headless ...
+     */
 
-                    String pageContent = content.toString();
-                    List<String> links = extractLinks(pageContent);
-                    return new PageInfo(url, pageContent, links, conn.getContentType());
+    @Name("crawler.Enqueue")
+    @jdk.jfr.Label("Crawl Task Enqueued")
+    @Category("Crawler")
+    @Description("A URL that passed scoping and deduplication was added to the frontier")
+    private static class EnqueueEvent extends Event {
+        @jdk.jfr.Label("URL")
+        String url;
+        @jdk.jfr.Label("Depth")
+        int depth;
+
+        static void commitAll(List<CrawlTask> tasks) {
+            if (tasks.isEmpty() || !new EnqueueEvent().isEnabled()) {
+                return;
+            }
+            for (CrawlTask task : tasks) {
+                EnqueueEvent event = new EnqueueEvent();
+                event.url = task.url;
+                event.depth = task.depth;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("crawler.Dequeue")
+    @jdk.jfr.Label("Crawl Task Dequeued")
+    @Category("Crawler")
+    @Description("A worker took a task from the frontier; the duration is the time it waited for one")
+    private static class DequeueEvent extends Event {
+        @jdk.jfr.Label("URL")
+        String url;
+        @jdk.jfr.Label("Depth")
+        int depth;
+
+        void commit(CrawlTask task) {
+            end();
+            if (shouldCommit()) {
+                url = task.url;
+                depth = task.depth;
+                commit();
+            }
+        }
+    }
+
+    @Name("crawler.Fetch")
+    @jdk.jfr.Label("Page Fetch")
+    @Category("Crawler")
+    @Description("One page fetch, from the request to the fully scanned body")
+    private static class FetchEvent extends Event {
+        @jdk.jfr.Label("URL")
+        String url;
+        @jdk.jfr.Label("Host")
+        String host;
+        @jdk.jfr.Label("Status")
+        @Description("HTTP status; 0 for non-200 responses, which are discarded unread, and for failures")
+        int status;
+        @jdk.jfr.Label("Bytes")
+        @DataAmount
+        long bytes;
+        @jdk.jfr.Label("Links")
+        int links;
+        @jdk.jfr.Label("Error")
+        String error;
+
+        void commit(String url, PageInfo page, Throwable failure) {
+            end();
+            if (shouldCommit()) {
+                this.url = url;
+                this.host = HostFrontier.hostOf(url);
+                if (page != null) {
+                    status = page.statusCode;
+                    bytes = page.content.length;
+                    links = page.links.size();
                 }
-            } catch (IOException e) {
-                updateLog("Error fetching " + url + ": " + e.getMessage());
+                if (failure != null) {
+                    error = failure.getClass().getName() + ": " + failure.getMessage();
+                }
+                commit();
+            }
+        }
+    }
+
+    @Name("crawler.Parse")
+    @jdk.jfr.Label("Link Extraction")
+    @Category("Crawler")
+    @Description("Link scanning of one page body; the scan time excludes waiting for the network")
+    private static class ParseEvent extends Event {
+        @jdk.jfr.Label("URL")
+        String url;
+        @jdk.jfr.Label("Bytes")
+        @DataAmount
+        long bytes;
+        @jdk.jfr.Label("Links")
+        int links;
+        @jdk.jfr.Label("Scan Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long scanTime;
+
+        void commit(String url, long bytes, int links, long scanNanos) {
+            end();
+            if (shouldCommit()) {
+                this.url = url;
+                this.bytes = bytes;
+                this.links = links;
+                this.scanTime = scanNanos;
+                commit();
             }
-            return null;
         }
+    }
 
-        private List<String> extractLinks(String content) {
-            List<String> links = new ArrayList<>();
-            Pattern pattern = Pattern.compile("href=\"(http[s]?://.*?)\"");
-            Matcher matcher = pattern.matcher(content);
-            while (matcher.find()) {
-                links.add(matcher.group(1));
+    @Name("crawler.Store")
+    @jdk.jfr.Label("Page Stored")
+    @Category("Crawler")
+    @Description("A page body written to the page store or a WARC file")
+    private static class StoreEvent extends Event {
+        @jdk.jfr.Label("Target")
+        String target;
+        @jdk.jfr.Label("URL")
+        String url;
+        @jdk.jfr.Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        void commit(String target, PageInfo page) {
+            end();
+            if (shouldCommit()) {
+                this.target = target;
+                this.url = page.url;
+                this.bytes = page.content.length;
+                commit();
             }
-            return links;
         }
     }
 
@@ -279,34 +5361,44 @@ public class AdvancedWebCrawlerGUI extends Application {
         }
     }
 
-    private static class PageInfo {
+    static class PageInfo {
         final String url;
-        final String content;
+        final int statusCode;
+        final HttpHeaders headers;
+        final byte[] content;
         final List<String> links;
-        final String contentType;
+        final Instant fetchedAt;
 
-        PageInfo(String url, String content, List<String> links, String contentType) {
+        PageInfo(String url, int statusCode, HttpHeaders headers, byte[] content, List<String> links, Instant fetchedAt) {
             this.url = url;
+            this.statusCode = statusCode;
+            this.headers = headers;
             this.content = content;
             this.links = links;
-            this.contentType = contentType;
+            this.fetchedAt = fetchedAt;
         }
     }
 
-    private void updateLog(String message) {
-        Platform.runLater(() -> logArea.appendText(message + "\n"));
-    }
-
-    private void showAlert(String title, String content) {
-        Alert alert = new Alert(Alert.AlertType.ERROR);
-        alert.setTitle(title);
-        alert.setHeaderText(null);
-        alert.setContentText(content);
-        alert.showAndWait();
+    /**
+     * Returns an executor that starts one virtual thread per task, or a cached pool of platform
+     * threads on JDKs that predate virtual threads. Looked up reflectively so the crawler still
+     * runs on Java 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
     }
 
-    @Override
-    public void stop() {
-        executorService.shutdownNow();
+    private static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
     }
 }